@@ -2,6 +2,7 @@ package com.mcnsa.essentials;
 
 import org.bukkit.plugin.java.JavaPlugin;
 
+import com.mcnsa.essentials.managers.AuditLogManager;
 import com.mcnsa.essentials.managers.ComponentManager;
 import com.mcnsa.essentials.managers.CommandsManager;
 import com.mcnsa.essentials.managers.ConfigurationManager;
@@ -14,6 +15,8 @@ import com.mcnsa.essentials.utilities.MultilineChatEntry;
 public class MCNSAEssentials extends JavaPlugin {	
 	// keep track of ourself
 	static MCNSAEssentials instance = null;
+	// the server thread, which is the only one allowed to use the bukkit api
+	static Thread mainThread = null;
 	
 	// our manager
 	PermissionsManager permissionsManager = null;
@@ -21,6 +24,7 @@ public class MCNSAEssentials extends JavaPlugin {
 	ConfigurationManager configurationManager = null;
 	CommandsManager commandsManager = null;
 	DatabaseManager databaseManager = null;
+	AuditLogManager auditLogManager = null;
 	
 	// our multiline chat entry handler
 	MultilineChatEntry multilineChatEntry = null;
@@ -30,6 +34,9 @@ public class MCNSAEssentials extends JavaPlugin {
 	}
 	
 	public void onEnable() {		
+		// we get enabled on the main server thread
+		mainThread = Thread.currentThread();
+		
 		// initialize our permissions manager
 		permissionsManager = new PermissionsManager();
 		
@@ -45,10 +52,13 @@ public class MCNSAEssentials extends JavaPlugin {
 		
 		// initialize our commands manager, loading commands in the process
 		commandsManager = new CommandsManager();
-
+		
 		// initialize our database manager
 		databaseManager = new DatabaseManager();
 		
+		// initialize our audit log writer
+		auditLogManager = new AuditLogManager();
+		
 		// initialize our chat handler
 		multilineChatEntry = new MultilineChatEntry();
 		
@@ -64,6 +74,7 @@ public class MCNSAEssentials extends JavaPlugin {
 		
 		// and start our database
 		databaseManager.enable();
+		auditLogManager.enable();
 		
 		// we're done!
 		Logger.log("&aPlugin enabled");
@@ -71,6 +82,20 @@ public class MCNSAEssentials extends JavaPlugin {
 	
 	public void onDisable() {
 		// shutdown
+		try {
+			// let any asynchronous commands finish up
+			commandsManager.disable();
+		}
+		catch(Exception e) {
+			Logger.error("Failed to disable commands manager (%s)!", e.getMessage());
+		}
+		try {
+			// write out any audit logs we haven't yet
+			auditLogManager.disable();
+		}
+		catch(Exception e) {
+			Logger.error("Failed to disable audit log manager (%s)!", e.getMessage());
+		}
 		try {
 			databaseManager.disable();
 		}
@@ -83,4 +108,9 @@ public class MCNSAEssentials extends JavaPlugin {
 	public static MCNSAEssentials getInstance() {
 		return instance;
 	}
+	
+	public static boolean isMainThread() {
+		// before we're enabled, nothing else is running yet
+		return mainThread == null || Thread.currentThread() == mainThread;
+	}
 }
@@ -15,4 +15,7 @@ public @interface Command {
 	String[] permissions() default {};
 	boolean playerOnly() default false;
 	boolean consoleOnly() default false;
+	// run on a worker thread instead of the server thread, for commands that block
+	// (the handler can't touch the bukkit api, other than messaging the sender)
+	boolean async() default false;
 }
@@ -10,4 +10,11 @@ import java.lang.annotation.Target;
 public @interface DatabaseTableInfo {
 	String name();
 	String[] fields();
+	// each index is a list of columns, ie "recipient(16), unread"
+	// (text columns need a prefix length to be indexed)
+	String[] indexes() default {};
+	String[] uniqueIndexes() default {};
+	// statements that upgrade the table one version at a time
+	// only ever add to the end of this!
+	String[] migrations() default {};
 }
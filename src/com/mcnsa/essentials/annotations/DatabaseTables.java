@@ -0,0 +1,13 @@
+package com.mcnsa.essentials.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// for components that need more than one table
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface DatabaseTables {
+	DatabaseTableInfo[] value();
+}
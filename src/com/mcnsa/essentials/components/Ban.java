@@ -1,11 +1,17 @@
 package com.mcnsa.essentials.components;
 
-import java.net.InetAddress;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -18,60 +24,288 @@ import com.mcnsa.essentials.MCNSAEssentials;
 import com.mcnsa.essentials.annotations.Command;
 import com.mcnsa.essentials.annotations.ComponentInfo;
 import com.mcnsa.essentials.annotations.DatabaseTableInfo;
+import com.mcnsa.essentials.annotations.DatabaseTables;
+import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
 import com.mcnsa.essentials.interfaces.MultilineChatHandler;
+import com.mcnsa.essentials.interfaces.RowMapper;
+import com.mcnsa.essentials.interfaces.RowVisitor;
+import com.mcnsa.essentials.interfaces.UnitOfWork;
+import com.mcnsa.essentials.managers.AuditLogManager;
 import com.mcnsa.essentials.managers.DatabaseManager;
+import com.mcnsa.essentials.runnables.BanCompactionTask;
+import com.mcnsa.essentials.runnables.BanExpiryTask;
+import com.mcnsa.essentials.runnables.BanIndexLoadTask;
+import com.mcnsa.essentials.utilities.BanIndex;
+import com.mcnsa.essentials.utilities.BloomFilter;
+import com.mcnsa.essentials.utilities.BulkOperation;
 import com.mcnsa.essentials.utilities.ColourHandler;
-import com.mcnsa.essentials.utilities.IPUtilities;
+import com.mcnsa.essentials.utilities.CommandSenderCallback;
+import com.mcnsa.essentials.utilities.ConnectionRateLimiter;
+import com.mcnsa.essentials.utilities.IPSubnet;
+import com.mcnsa.essentials.utilities.Logger;
 import com.mcnsa.essentials.utilities.MultilineChatEntry;
+import com.mcnsa.essentials.utilities.Page;
 import com.mcnsa.essentials.utilities.PlayerSelector;
+import com.mcnsa.essentials.utilities.TimeFormat;
+import com.mcnsa.essentials.utilities.Transaction;
 
 @ComponentInfo(friendlyName = "Ban",
 				description = "Commands to ban players",
 				permsSettingsPrefix = "ban")
-@DatabaseTableInfo(name = "banlogs",
-					fields = { "banee TINYTEXT", "banner TINYTEXT", "date TIMESTAMP", "reason TINYTEXT", "expiry TIMESTAMP" })
+@DatabaseTables({
+	// the latest entry for each banee (plus anything compaction hasn't got to yet)
+	@DatabaseTableInfo(name = "banlogs",
+						fields = { "banee TINYTEXT", "banner TINYTEXT", "date TIMESTAMP", "reason TINYTEXT", "expiry TIMESTAMP" },
+						indexes = { "banee(32), date" }),
+	// everything older, moved out of the way by compaction
+	@DatabaseTableInfo(name = "banlogs_archive",
+						fields = { "banee TINYTEXT", "banner TINYTEXT", "date TIMESTAMP", "reason TINYTEXT", "expiry TIMESTAMP" },
+						indexes = { "banee(32), date" })
+})
 public class Ban implements Listener, MultilineChatHandler {
+	@Setting(node = "outage.allow-unknown-players") public static boolean allowUnknownDuringOutage = true;
+	@Setting(node = "outage.login-cache-size") public static int loginCacheSize = 1000;
+	@Setting(node = "filter.expected-banees") public static int filterExpectedBanees = 100000;
+	@Setting(node = "filter.false-positive-rate") public static float filterFalsePositiveRate = 0.01f;
+	@Setting(node = "bulk.kicks-per-tick") public static int bulkKicksPerTick = 5;
+	@Setting(node = "compaction.batch-size") public static int compactionBatchSize = 500;
+	@Setting(node = "compaction.max-batches") public static int compactionMaxBatches = 20;
+	@Setting(node = "history-per-page") public static int historyPerPage = 8;
+	@Setting(node = "login.decision-cache-seconds") public static int loginDecisionCacheSeconds = 5;
+	@Setting(node = "login.rate-limit.attempts") public static int loginRateLimitAttempts = 5;
+	@Setting(node = "login.rate-limit.window-seconds") public static int loginRateLimitWindow = 10;
+	
+	// a single row of our banlogs table
+	public static class BanEntry {
+		public static final RowMapper<BanEntry> MAPPER = new RowMapper<BanEntry>() {
+			private final String[] columns = {"id", "banee", "banner", "date", "reason", "expiry"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public BanEntry mapRow(ResultSet results, int[] columns) throws SQLException {
+				BanEntry entry = new BanEntry();
+				entry.id = results.getInt(columns[0]);
+				entry.banee = results.getString(columns[1]);
+				entry.banner = results.getString(columns[2]);
+				entry.date = results.getTimestamp(columns[3]);
+				entry.reason = results.getString(columns[4]);
+				entry.expiry = results.getTimestamp(columns[5]);
+				
+				// bans made "forever" after the old forever went by were meant to be permanent
+				// (older ones really did run out back then, so they stay that way)
+				if(entry.expiry.equals(TimeFormat.LEGACY_FOREVER) && entry.date.after(TimeFormat.LEGACY_FOREVER)) {
+					entry.expiry = TimeFormat.FOREVER;
+				}
+				return entry;
+			}
+		};
+		
+		// just who was banned
+		public static final RowMapper<String> BANEE_MAPPER = new RowMapper<String>() {
+			private final String[] columns = {"banee"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public String mapRow(ResultSet results, int[] columns) throws SQLException {
+				return results.getString(columns[0]);
+			}
+		};
+		
+		// just the row's id
+		public static final RowMapper<Integer> ID_MAPPER = new RowMapper<Integer>() {
+			private final String[] columns = {"id"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public Integer mapRow(ResultSet results, int[] columns) throws SQLException {
+				return results.getInt(columns[0]);
+			}
+		};
+		
+		// who we say wrote the record of a ban running out
+		public static final String EXPIRY_BANNER = "[expiry]";
+		
+		public int id;
+		public String banee;
+		public String banner;
+		public Timestamp date;
+		public String reason;
+		public Timestamp expiry;
+		
+		public boolean isExpiryRecord() {
+			return EXPIRY_BANNER.equals(banner);
+		}
+	}
+	
+	// how often to try loading our ban index until it works
+	private static final int INDEX_LOAD_INTERVAL = 30;
+	// how many expiring bans /bans expiring lists at most
+	private static final int MAX_EXPIRING_LISTED = 20;
+	// how often (in minutes) to move old ban logs into the archive
+	private static final int COMPACTION_INTERVAL = 10;
+	private static final String RATE_LIMITED_MESSAGE = ColourHandler.processColours(
+			"&cYou're connecting too often, please wait a few seconds and try again!");
+	private static final String BAN_LOG_QUERY =
+			"insert into banlogs (id, banee, banner, date, reason, expiry) values (NULL, ?, ?, ?, ?, ?);";
+	
+	// what we last told someone trying to log in, so we don't have to work it out again
+	// (a null message means they were let in)
+	private static class LoginDecision {
+		public long expiresAt = 0;
+		public String message = null;
+		
+		public LoginDecision(long expiresAt, String message) {
+			this.expiresAt = expiresAt;
+			this.message = message;
+		}
+	}
+	
 	private static Ban instance = null;
+	private static volatile BanIndex banIndex = null;
+	private static ConnectionRateLimiter connectionLimiter = new ConnectionRateLimiter();
+	private static ConcurrentHashMap<String, LoginDecision> loginDecisions = new ConcurrentHashMap<String, LoginDecision>();
+	private static LinkedHashMap<String, BanEntry> loginCache = new LinkedHashMap<String, BanEntry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 4106530563186417730L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, BanEntry> eldest) {
+			return size() > loginCacheSize;
+		}
+	};
+	
 	public Ban() {
 		Ban.instance = this;
 		// register our events
 		Bukkit.getServer().getPluginManager().registerEvents(this, MCNSAEssentials.getInstance());
+		
+		// load our bans once the database is up
+		Bukkit.getServer().getScheduler().runTaskTimerAsynchronously(
+				MCNSAEssentials.getInstance(), new BanIndexLoadTask(), 1, INDEX_LOAD_INTERVAL * 20L);
+		
+		// and drop them as they run out
+		Bukkit.getServer().getScheduler().runTaskTimerAsynchronously(
+				MCNSAEssentials.getInstance(), new BanExpiryTask(), 20, 20);
+		
+		// keep our ban logs down to just the latest entries
+		Bukkit.getServer().getScheduler().runTaskTimerAsynchronously(
+				MCNSAEssentials.getInstance(), new BanCompactionTask(), COMPACTION_INTERVAL * 1200L, COMPACTION_INTERVAL * 1200L);
+	}
+	
+	// made the first time it's needed, once our settings have been loaded
+	public static BanIndex getBanIndex() {
+		BanIndex index = banIndex;
+		if(index == null) {
+			synchronized(Ban.class) {
+				if(banIndex == null) {
+					banIndex = new BanIndex(new BloomFilter(filterExpectedBanees, filterFalsePositiveRate));
+				}
+				index = banIndex;
+			}
+		}
+		return index;
+	}
+	
+	// reads everyone who has ever been banned into our index's filter,
+	// and the latest entry of everyone with an active ban into the index
+	// (along with all of our address bans, an old unban can still be
+	// punching a hole in a newer subnet ban)
+	// (bans made while we're loading are recorded as they happen)
+	public static void loadBanIndex() {
+		final BanIndex index = getBanIndex();
+		long now = System.currentTimeMillis();
+		try {
+			DatabaseManager.streamQuery(BanEntry.BANEE_MAPPER, new RowVisitor<String>() {
+				@Override
+				public boolean visit(String banee) {
+					index.addBanee(banee);
+					return true;
+				}
+			}, "select distinct banee from banlogs;");
+			
+			DatabaseManager.streamQuery(BanEntry.MAPPER, new RowVisitor<BanEntry>() {
+				@Override
+				public boolean visit(BanEntry row) {
+					index.record(row);
+					return true;
+				}
+			}, "select b.* from banlogs b join (select distinct banee from banlogs where expiry > ? or (expiry = ? and date > ?) or banee like '/%') a on a.banee = b.banee;",
+			new Timestamp(now),
+			TimeFormat.LEGACY_FOREVER,
+			TimeFormat.LEGACY_FOREVER);
+		}
+		catch(EssentialsCommandException e) {
+			Logger.warning("Failed to load bans, checking logins against the database for now (%s)", e.getMessage());
+			return;
+		}
+		
+		index.prune(now);
+		index.setLoaded(true);
+		loginDecisions.clear();
+		Logger.log("&aLoaded %d active bans", index.size());
+		
+		// warn if we've outgrown our filter
+		BloomFilter filter = index.getFilter();
+		if(filter.getExpectedFalsePositiveRate() > filterFalsePositiveRate * 2) {
+			Logger.warning("The ban filter is getting full (%d banees), consider raising ban.filter.expected-banees!",
+					filter.getInsertions());
+		}
 	}
 	
 	// utility functions
-	private static void ban(Player banee, CommandSender banner, String reason, Timestamp expiry) throws EssentialsCommandException {
-		// kick the player
+	// bans everyone at once, their ban log rows all go out in one batch
+	// and they're kicked over the next few ticks
+	private static void banAll(ArrayList<Player> banees, CommandSender banner, String reason, Timestamp expiry) {
+		BulkOperation operation = new BulkOperation(banner,
+				String.format("&6You have banned the following people until %s:", expiry.toString()),
+				BAN_LOG_QUERY);
 		String message = ColourHandler.processColours("&cYou have been banned until %s by %s: %s",
 				expiry.toString(),
 				banner.getName(),
 				reason);
-		ColourHandler.sendMessage(banee, message);
-		banee.kickPlayer(message);
-		
-		// and alert the banner
-		ColourHandler.sendMessage(banner, "&6You have banned %s until %s!", banee.getName(), expiry.toString());
 		
-		// record our ban
-		int results = DatabaseManager.updateQuery(
-				"insert into banlogs (id, banee, banner, date, reason, expiry) values (NULL, ?, ?, ?, ?, ?);",
-				banee.getName(),
-				banner.getName(),
-				new Timestamp(System.currentTimeMillis()),
-				reason,
-				expiry);
-		
-		// make sure it worked!
-		if(results == 0) {
-			throw new EssentialsCommandException("Failed to log ban!");
+		for(Player banee: banees) {
+			// make sure the target still exists
+			if(banee == null) {
+				continue;
+			}
+			
+			try {
+				// the ban takes effect as soon as it's in our index
+				BanEntry entry = createEntry(banee.getName(), banner.getName(), reason, expiry);
+				recordBan(entry);
+				operation.add(banee, message, message,
+						entry.banee,
+						entry.banner,
+						entry.date,
+						entry.reason,
+						entry.expiry);
+			}
+			catch(Exception e) {
+				operation.fail(banee.getName(), "couldn't be banned: " + e.getMessage());
+			}
 		}
+		
+		operation.execute(bulkKicksPerTick);
 	}
 	
-	private static void banIP(InetAddress banee, CommandSender banner, String reason, Timestamp expiry) throws EssentialsCommandException {
-		// find the player
+	private static void banIP(IPSubnet banee, CommandSender banner, String reason, Timestamp expiry) throws EssentialsCommandException {
+		// find the player[s]
 		ArrayList<Player> matchedPlayers = PlayerSelector.selectPlayersExact("ip:" + banee.toString());
 		
-		// if they're online, kick the player
+		// if they're online, kick them
 		for(Player matchedPlayer: matchedPlayers) {
 			String message = ColourHandler.processColours("&cYou have been ip-banned until %s by %s: %s",
 					expiry.toString(),
@@ -85,21 +319,14 @@ public class Ban implements Listener, MultilineChatHandler {
 		ColourHandler.sendMessage(banner, "&6You have banned %s until %s!", banee.toString(), expiry.toString());
 		
 		// record our ban
-		int results = DatabaseManager.updateQuery(
-				"insert into banlogs (id, banee, banner, date, reason, expiry) values (NULL, ?, ?, ?, ?, ?);",
-				banee.toString(),
-				banner.getName(),
-				new Timestamp(System.currentTimeMillis()),
-				reason,
-				expiry);
+		logBan(banee.toString(), banner.getName(), reason, expiry);
 		
-		// make sure it worked!
-		if(results == 0) {
-			throw new EssentialsCommandException("Failed to log ban!");
+		// bukkit can't do subnets or expiries, but it can hold on to permanent bans of a
+		// single address, which keeps them working even when we can't reach the database
+		// (unbanIP takes them back out)
+		if(banee.isSingleAddress() && !expiry.before(TimeFormat.FOREVER)) {
+			Bukkit.getServer().banIP(banee.getAddressString());
 		}
-		
-		// ban in bukkit
-		Bukkit.getServer().banIP(banee.toString());
 	}
 	
 	private static void unban(String unbanee, CommandSender unbanner, String reason) throws EssentialsCommandException {
@@ -107,42 +334,120 @@ public class Ban implements Listener, MultilineChatHandler {
 		ColourHandler.sendMessage(unbanner, "&6You have unbanned %s!", unbanee);
 		
 		// record our unban
-		int results = DatabaseManager.updateQuery(
-				"insert into banlogs (id, banee, banner, date, reason, expiry) values (NULL, ?, ?, ?, ?, ?);",
-				unbanee,
-				unbanner.getName(),
-				new Timestamp(System.currentTimeMillis()),
-				reason,
-				Timestamp.valueOf("1970-01-01 00:00:01"));
-		
-		// make sure it worked!
-		if(results == 0) {
-			throw new EssentialsCommandException("Failed to log unban!");
-		}
+		logBan(unbanee, unbanner.getName(), reason, Timestamp.valueOf("1970-01-01 00:00:01"));
 	}
 	
-	private static void unbanIP(InetAddress unbanee, CommandSender unbanner, String reason) throws EssentialsCommandException {
+	private static void unbanIP(IPSubnet unbanee, CommandSender unbanner, String reason) throws EssentialsCommandException {
 		// and alert the unbanner
 		ColourHandler.sendMessage(unbanner, "&6You have unbanned %s!", unbanee);
 		
 		// record our unban
-		int results = DatabaseManager.updateQuery(
-				"insert into banlogs (id, banee, banner, date, reason, expiry) values (NULL, ?, ?, ?, ?, ?);",
-				unbanee.toString(),
-				unbanner.getName(),
-				new Timestamp(System.currentTimeMillis()),
-				reason,
-				Timestamp.valueOf("1970-01-01 00:00:01"));
-		
-		// make sure it worked!
-		if(results == 0) {
-			throw new EssentialsCommandException("Failed to log unban!");
+		logBan(unbanee.toString(), unbanner.getName(), reason, Timestamp.valueOf("1970-01-01 00:00:01"));
+		
+		// clear out any ban bukkit has from before we handled ip bans ourselves
+		if(unbanee.isSingleAddress()) {
+			Bukkit.getServer().unbanIP(unbanee.getAddressString());
 		}
+	}
+	
+	// writes a ban log entry and keeps our index up to date with it
+	// (unbans are entries that have already expired)
+	private static void logBan(String banee, String banner, String reason, Timestamp expiry) throws EssentialsCommandException {
+		BanEntry entry = createEntry(banee, banner, reason, expiry);
+		recordBan(entry);
 		
-		// unban in bukkit
-		Bukkit.getServer().unbanIP(unbanee.toString());
+		AuditLogManager.log(BAN_LOG_QUERY,
+				entry.banee,
+				entry.banner,
+				entry.date,
+				entry.reason,
+				entry.expiry);
 	}
-
+	
+	// every ban (or unban) goes through here, so nobody
+	// gets let in or kept out based on an old decision
+	private static void recordBan(BanEntry entry) {
+		getBanIndex().record(entry);
+		loginDecisions.clear();
+	}
+	
+	private static BanEntry createEntry(String banee, String banner, String reason, Timestamp expiry) {
+		BanEntry entry = new BanEntry();
+		entry.banee = banee;
+		entry.banner = banner;
+		entry.date = new Timestamp(System.currentTimeMillis());
+		entry.reason = reason;
+		entry.expiry = expiry;
+		return entry;
+	}
+	
+	// drops bans that have run out from our index,
+	// leaving a record of it in the ban logs
+	public static void expireBans() {
+		long now = System.currentTimeMillis();
+		for(BanEntry entry: getBanIndex().expire(now)) {
+			Logger.log("&e%s's ban has expired", entry.banee);
+			AuditLogManager.log(BAN_LOG_QUERY,
+					entry.banee,
+					BanEntry.EXPIRY_BANNER,
+					new Timestamp(now),
+					"ban expired",
+					entry.expiry);
+		}
+	}
+	
+	// moves every ban log entry that has been superseded by a newer one
+	// for the same banee into the archive, a batch at a time
+	// (only the latest entry ever decides whether someone is banned)
+	public static void compactBanLogs() {
+		int moved = 0;
+		for(int batch = 0; batch < compactionMaxBatches; batch++) {
+			if(!DatabaseManager.isAvailable()) {
+				break;
+			}
+			
+			try {
+				final ArrayList<Integer> ids = DatabaseManager.accessQuery(BanEntry.ID_MAPPER,
+						"select b.id from banlogs b where exists (select 1 from banlogs n where n.banee = b.banee"
+						+ " and (n.date > b.date or (n.date = b.date and n.id > b.id))) limit ?;",
+						Math.max(1, compactionBatchSize));
+				if(ids.size() == 0) {
+					break;
+				}
+				
+				// copy them over and remove them together, so nothing is lost or doubled up
+				String idList = "";
+				for(int i = 0; i < ids.size(); i++) {
+					idList += i == 0 ? "?" : ", ?";
+				}
+				final String insertQuery = "insert into banlogs_archive (id, banee, banner, date, reason, expiry)"
+						+ " select id, banee, banner, date, reason, expiry from banlogs where id in (" + idList + ");";
+				final String deleteQuery = "delete from banlogs where id in (" + idList + ");";
+				moved += DatabaseManager.transaction(new UnitOfWork<Integer>() {
+					@Override
+					public Integer execute(Transaction transaction) throws EssentialsCommandException {
+						Object[] args = ids.toArray();
+						transaction.updateQuery(insertQuery, args);
+						return transaction.updateQuery(deleteQuery, args);
+					}
+				});
+				
+				// that was the last of them
+				if(ids.size() < compactionBatchSize) {
+					break;
+				}
+			}
+			catch(EssentialsCommandException e) {
+				Logger.warning("Failed to compact the ban logs: %s", e.getMessage());
+				break;
+			}
+		}
+		
+		if(moved > 0) {
+			Logger.log("&aMoved %d old ban log entries into the archive", moved);
+		}
+	}
+	
 	// multiline chat handler
 	@Override
 	public void onChatComplete(Player player, String reason, Object... args) throws EssentialsCommandException {
@@ -158,21 +463,12 @@ public class Ban implements Listener, MultilineChatHandler {
 				// get our expiry date
 				Timestamp expiry = (Timestamp)args[1];
 				
-				// loop over our targets and ban them
-				for(Player target: targetPlayers) {
-					// make sure the target still exists
-					if(target == null) {
-						continue;
-					}
-					
-					// ok, they're there.
-					// ban them.
-					ban(target, player, reason, expiry);
-				}
+				// ban them all
+				banAll(targetPlayers, player, reason, expiry);
 			}
-			else if(args[0] instanceof InetAddress) {
+			else if(args[0] instanceof IPSubnet) {
 				// we have an IP
-				InetAddress IP = (InetAddress)args[0];
+				IPSubnet IP = (IPSubnet)args[0];
 				
 				// get our expiry date
 				Timestamp expiry = (Timestamp)args[1];
@@ -194,9 +490,9 @@ public class Ban implements Listener, MultilineChatHandler {
 				// unban them
 				unban(targetPlayer, player, reason);
 			}
-			else if(args[0] instanceof InetAddress) {
-				InetAddress IP = (InetAddress)args[0];
-				unban(IP.toString(), player, reason);
+			else if(args[0] instanceof IPSubnet) {
+				IPSubnet IP = (IPSubnet)args[0];
+				unbanIP(IP, player, reason);
 			}
 			else {
 				throw new EssentialsCommandException("Something went wrong, please contact an administrator!");
@@ -211,36 +507,115 @@ public class Ban implements Listener, MultilineChatHandler {
 	// bukkit events
 	@EventHandler(priority = EventPriority.LOWEST)
 	public void onPlayerPreLoginEvent(AsyncPlayerPreLoginEvent event) {
-		try {
-			// see if they're banned or not			
-			// query the database
-			ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery(
-					"select * from banlogs where banee=? or banee=? order by date desc limit 1;",
-					event.getName(),
-					event.getAddress().toString());
-			
-			// check their results
-			if(results.size() > 0) {
-				// if their latest ban log expiry is after now, they're still banned
-				Timestamp expiry = (Timestamp)results.get(0).get("expiry");
-				Timestamp now = new Timestamp(System.currentTimeMillis());
-				
-				/*MCNSAEssentials.debug("expiry: " + expiry);
-				MCNSAEssentials.debug("now: " + now);
-				MCNSAEssentials.debug("expiry after now: " + expiry.after(now));*/
+		// turn away anyone flooding us before doing anything else
+		long nowMillis = System.currentTimeMillis();
+		if(!connectionLimiter.allow(event.getAddress(), nowMillis, loginRateLimitAttempts, loginRateLimitWindow * 1000L)) {
+			event.disallow(Result.KICK_OTHER, RATE_LIMITED_MESSAGE);
+			return;
+		}
+		
+		// see if we've just decided this
+		String decisionKey = event.getName().toLowerCase() + event.getAddress().toString();
+		LoginDecision decision = loginDecisions.get(decisionKey);
+		if(decision != null && decision.expiresAt > nowMillis) {
+			if(decision.message != null) {
+				event.disallow(Result.KICK_BANNED, decision.message);
+			}
+			return;
+		}
+		
+		BanEntry latest = null;
+		BanIndex index = getBanIndex();
+		if(index.isLoaded()) {
+			// we know about every ban already, no need to ask the database
+			latest = index.getActiveBan(nowMillis, event.getName(), event.getAddress());
+		}
+		else {
+			try {
+				// see if they're banned or not			
+				// query the database
+				if(!DatabaseManager.isAvailable()) {
+					throw new EssentialsCommandException("The database is unavailable right now!");
+				}
+				ArrayList<BanEntry> results = DatabaseManager.accessQuery(BanEntry.MAPPER,
+						"select * from banlogs where banee=? or banee=? order by date desc limit 1;",
+						event.getName(),
+						event.getAddress().toString());
+				if(results.size() > 0) {
+					latest = results.get(0);
+				}
 				
-				if(expiry.after(now)) {
-					// nope, they're banned
-					event.disallow(Result.KICK_BANNED, ColourHandler.processColours(String.format(
-							"&cYou are banned until &f%s&c: &f%s",
-							expiry.toString(),
-							(String)results.get(0).get("reason"))));
+				// remember this in case the database goes away
+				cacheLoginResult(event.getName(), latest);
+			}
+			catch(Exception e) {
+				// the database is having trouble, go with what we knew last time
+				if(!hasCachedLoginResult(event.getName())) {
+					if(!allowUnknownDuringOutage) {
+						event.disallow(Result.KICK_OTHER, ColourHandler.processColours(
+								"&cWe can't check your ban status right now, please try again in a few minutes!"));
+					}
+					return;
 				}
+				latest = getCachedLoginResult(event.getName());
 			}
 		}
-		catch(Exception e) {
-			event.disallow(Result.KICK_WHITELIST, "Something went wrong: " + e.getMessage());
+		
+		// check their results
+		long decisionExpiry = nowMillis + loginDecisionCacheSeconds * 1000L;
+		String message = null;
+		if(latest != null) {
+			// if their latest ban log expiry is after now, they're still banned
+			Timestamp expiry = latest.expiry;
+			Timestamp now = new Timestamp(nowMillis);
+			
+			/*MCNSAEssentials.debug("expiry: " + expiry);
+			MCNSAEssentials.debug("now: " + now);
+			MCNSAEssentials.debug("expiry after now: " + expiry.after(now));*/
+			
+			if(expiry.after(now)) {
+				// nope, they're banned
+				message = ColourHandler.processColours(String.format(
+						"&cYou are banned until &f%s&c: &f%s",
+						expiry.toString(),
+						latest.reason));
+				event.disallow(Result.KICK_BANNED, message);
+				
+				// don't remember it for longer than the ban lasts
+				decisionExpiry = Math.min(decisionExpiry, expiry.getTime());
+			}
+		}
+		
+		// and remember what we decided for a little while
+		if(loginDecisionCacheSeconds > 0) {
+			loginDecisions.put(decisionKey, new LoginDecision(decisionExpiry, message));
+		}
+	}
+	
+	// forget login decisions and connection attempts that are too old to matter
+	public static void pruneLoginThrottles() {
+		long now = System.currentTimeMillis();
+		Iterator<LoginDecision> it = loginDecisions.values().iterator();
+		while(it.hasNext()) {
+			if(it.next().expiresAt <= now) {
+				it.remove();
+			}
 		}
+		connectionLimiter.prune(now, loginRateLimitWindow * 1000L);
+	}
+	
+	// our last known login results, for when the database is down
+	// (keyed on player name, a null entry means they weren't banned)
+	private static synchronized void cacheLoginResult(String name, BanEntry latest) {
+		loginCache.put(name.toLowerCase(), latest);
+	}
+	
+	private static synchronized boolean hasCachedLoginResult(String name) {
+		return loginCache.containsKey(name.toLowerCase());
+	}
+	
+	private static synchronized BanEntry getCachedLoginResult(String name) {
+		return loginCache.get(name.toLowerCase());
 	}
 	
 	// commands
@@ -249,35 +624,18 @@ public class Ban implements Listener, MultilineChatHandler {
 			description = "bans the target player[s] for the given reason",
 			permissions = {"ban.forever"},
 			playerOnly = true)
-	public static boolean ban(CommandSender sender, String targetPlayer) throws EssentialsCommandException {
-		return ban(sender, targetPlayer, "2020-02-02 02:02:02");
+	public static boolean ban(CommandSender sender, Player[] targetPlayers) throws EssentialsCommandException {
+		return ban(sender, targetPlayers, TimeFormat.FOREVER);
 	}
 	
 	@Command(command = "ban",
-			arguments = {"target player[s]", "expiry date"},
+			arguments = {"target player[s]", "expiry (ie 3d12h, 2013-05-01_18:30)"},
 			description = "bans the target player[s] for the given reason until the expiry date",
 			permissions = {"ban.expiry"},
 			playerOnly = true)
-	public static boolean ban(CommandSender sender, String targetPlayer, String expiry) throws EssentialsCommandException {
-		// parse our timestamp
-		Timestamp expiryTimestamp = null;
-		try {
-			expiryTimestamp = Timestamp.valueOf(expiry);
-		}
-		catch(IllegalArgumentException e) {
-			throw new EssentialsCommandException("I couldn't understand your date '%s'. Please format it as 'yyyy-mm-dd hh:mm:ss'!");
-		}
-		
-		// get a list of all target players
-		ArrayList<Player> targetPlayers = PlayerSelector.selectPlayersExact(targetPlayer);
-		
-		// make sure we have at least one target player
-		if(targetPlayers.size() == 0) {
-			throw new EssentialsCommandException("I couldn't find / parse target player[s] '%s' to ban!", targetPlayer);
-		}
-		
+	public static boolean ban(CommandSender sender, Player[] targetPlayers, Timestamp expiry) throws EssentialsCommandException {
 		// call our multiline chat handler
-		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, targetPlayers, expiryTimestamp);
+		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, new ArrayList<Player>(Arrays.asList(targetPlayers)), expiry);
 		
 		return true;
 	}
@@ -286,123 +644,62 @@ public class Ban implements Listener, MultilineChatHandler {
 			description = "bans the target player[s]",
 			permissions = {"ban.forever"},
 			consoleOnly = true)
-	public static boolean banFromConsole(CommandSender sender, String targetPlayer) throws EssentialsCommandException {
-		return banFromConsole(sender, targetPlayer, "2020-02-02 02:02:02");
+	public static boolean banFromConsole(CommandSender sender, Player[] targetPlayers) throws EssentialsCommandException {
+		return banFromConsole(sender, targetPlayers, TimeFormat.FOREVER);
 	}
 	
 	@Command(command = "ban",
-			arguments = {"target player[s]", "expiry date"},
+			arguments = {"target player[s]", "expiry (ie 3d12h, 2013-05-01_18:30)"},
 			description = "bans the target player[s] until the expiry date",
 			permissions = {"ban.expiry"},
-					consoleOnly = true)
-	public static boolean banFromConsole(CommandSender sender, String targetPlayer, String expiry) throws EssentialsCommandException {
-		// parse our timestamp
-		Timestamp expiryTimestamp = null;
-		try {
-			expiryTimestamp = Timestamp.valueOf(expiry);
-		}
-		catch(IllegalArgumentException e) {
-			throw new EssentialsCommandException("I couldn't understand your date '%s'. Please format it as 'yyyy-mm-dd hh:mm:ss'!");
-		}
-		
-		// get a list of all target players
-		ArrayList<Player> targetPlayers = PlayerSelector.selectPlayersExact(targetPlayer);
-		
-		// make sure we have at least one target player
-		if(targetPlayers.size() == 0) {
-			throw new EssentialsCommandException("I couldn't find / parse target player[s] '%s' to ban!", targetPlayer);
-		}
-		
+			consoleOnly = true)
+	public static boolean banFromConsole(CommandSender sender, Player[] targetPlayers, Timestamp expiry) throws EssentialsCommandException {
 		String reason = "for no good reason"; 
-
-		// loop over our targets and ban them
-		for(Player target: targetPlayers) {
-			// ban them.
-			ban(target, sender, reason, expiryTimestamp);
-			
-			// and alert the banner
-			ColourHandler.sendMessage(sender, "&6You have banned %s until %s!", target.getName(), expiry.toString());
-		}
+		
+		// ban them all
+		banAll(new ArrayList<Player>(Arrays.asList(targetPlayers)), sender, reason, expiry);
 		
 		return true;
 	}
 	
 	 // ban IPS
 	@Command(command = "banip",
-			arguments = {"target ip"},
-			description = "bans the target ip for the given reason",
+			arguments = {"target ip[/subnet bits]"},
+			description = "bans the target ip or subnet for the given reason",
 			permissions = {"ip.forever"},
 			playerOnly = true)
-	public static boolean banIP(CommandSender sender, String targetIP) throws EssentialsCommandException {
-		return banip(sender, targetIP, "2020-02-02 02:02:02");
+	public static boolean banIP(CommandSender sender, IPSubnet IP) throws EssentialsCommandException {
+		return banIP(sender, IP, TimeFormat.FOREVER);
 	}
-
+	
 	@Command(command = "banip",
-			arguments = {"target ip", "expiry date"},
-			description = "bans the target ip for the given reason until the expiry date",
+			arguments = {"target ip[/subnet bits]", "expiry (ie 3d12h, 2013-05-01_18:30)"},
+			description = "bans the target ip or subnet for the given reason until the expiry date",
 			permissions = {"ip.expiry"},
 			playerOnly = true)
-	public static boolean banip(CommandSender sender, String targetIP, String expiry) throws EssentialsCommandException {
-		// parse our timestamp
-		Timestamp expiryTimestamp = null;
-		try {
-			expiryTimestamp = Timestamp.valueOf(expiry);
-		}
-		catch(IllegalArgumentException e) {
-			throw new EssentialsCommandException("I couldn't understand your date '%s'. Please format it as 'yyyy-mm-dd hh:mm:ss'!");
-		}
-		
-		// try to parse our IP
-		InetAddress IP = null;
-		try {
-			IP = IPUtilities.parseIpAddress(targetIP);
-		}
-		catch(Exception e) {
-			// nope
-			throw new EssentialsCommandException(e.getMessage());
-		}
-		
+	public static boolean banIP(CommandSender sender, IPSubnet IP, Timestamp expiry) throws EssentialsCommandException {
 		// call our multiline chat handler
-		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, IP, expiryTimestamp);
+		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, IP, expiry);
 		
 		return true;
 	}
 	@Command(command = "banip",
-			arguments = {"target ip"},
-			description = "bans the target ip",
+			arguments = {"target ip[/subnet bits]"},
+			description = "bans the target ip or subnet",
 			permissions = {"ip.forever"},
 			consoleOnly = true)
-	public static boolean banIPFromConsole(CommandSender sender, String targetIP) throws EssentialsCommandException {
-		return banIPFromConsole(sender, targetIP, "2020-02-02 02:02:02");
+	public static boolean banIPFromConsole(CommandSender sender, IPSubnet IP) throws EssentialsCommandException {
+		return banIPFromConsole(sender, IP, TimeFormat.FOREVER);
 	}
 	
 	@Command(command = "banip",
-			arguments = {"target ip", "expiry date"},
-			description = "bans the target ip until the expiry date",
+			arguments = {"target ip[/subnet bits]", "expiry (ie 3d12h, 2013-05-01_18:30)"},
+			description = "bans the target ip or subnet until the expiry date",
 			permissions = {"ip.expiry"},
 			consoleOnly = true)
-	public static boolean banIPFromConsole(CommandSender sender, String targetIP, String expiry) throws EssentialsCommandException {
-		// parse our timestamp
-		Timestamp expiryTimestamp = null;
-		try {
-			expiryTimestamp = Timestamp.valueOf(expiry);
-		}
-		catch(IllegalArgumentException e) {
-			throw new EssentialsCommandException("I couldn't understand your date '%s'. Please format it as 'yyyy-mm-dd hh:mm:ss'!");
-		}
-		
-		// try to parse our IP
-		InetAddress IP = null;
-		try {
-			IP = IPUtilities.parseIpAddress(targetIP);
-		}
-		catch(Exception e) {
-			// nope
-			throw new EssentialsCommandException(e.getMessage());
-		}
-		
+	public static boolean banIPFromConsole(CommandSender sender, IPSubnet IP, Timestamp expiry) throws EssentialsCommandException {
 		// ban them
-		banIP(IP, sender, "for no good reason", expiryTimestamp);
+		banIP(IP, sender, "for no good reason", expiry);
 		
 		return true;
 	}
@@ -413,8 +710,8 @@ public class Ban implements Listener, MultilineChatHandler {
 			description = "unbans the target player for the given reason",
 			permissions = {"unban"},
 			playerOnly = true)
-	public static boolean unban(CommandSender sender, String targetPlayer) throws EssentialsCommandException {
-		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, targetPlayer);
+	public static boolean unban(CommandSender sender, OfflinePlayer targetPlayer) throws EssentialsCommandException {
+		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, targetPlayer.getName());
 		return true;
 	}
 	@Command(command = "unban",
@@ -422,48 +719,179 @@ public class Ban implements Listener, MultilineChatHandler {
 			description = "unbans the target player",
 			permissions = {"unban"},
 			consoleOnly = true)
-	public static boolean unbanFromConsole(CommandSender sender, String targetPlayer) throws EssentialsCommandException {
-		unban(targetPlayer, sender, "for no good reason");
+	public static boolean unbanFromConsole(CommandSender sender, OfflinePlayer targetPlayer) throws EssentialsCommandException {
+		unban(targetPlayer.getName(), sender, "for no good reason");
 		return true;
 	}
 	
 	// unbans
 	@Command(command = "unbanip",
-			arguments = {"target player"},
-			description = "unbans the target player for the given reason",
+			arguments = {"target ip[/subnet bits]"},
+			description = "unbans the target ip or subnet for the given reason",
 			permissions = {"unip"},
 			playerOnly = true)
-	public static boolean unbanIP(CommandSender sender, String targetIP) throws EssentialsCommandException {
-		// try to parse our IP
-		InetAddress IP = null;
-		try {
-			IP = IPUtilities.parseIpAddress(targetIP);
-		}
-		catch(Exception e) {
-			// nope
-			throw new EssentialsCommandException(e.getMessage());
-		}
-		
+	public static boolean unbanIP(CommandSender sender, IPSubnet IP) throws EssentialsCommandException {
 		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, IP);
 		return true;
 	}
 	@Command(command = "unbanip",
-			arguments = {"target player"},
-			description = "unbans the target player",
+			arguments = {"target ip[/subnet bits]"},
+			description = "unbans the target ip or subnet",
 			permissions = {"unip"},
 			consoleOnly = true)
-	public static boolean unbanIPFromConsole(CommandSender sender, String targetIP) throws EssentialsCommandException {
-		// try to parse our IP
-		InetAddress IP = null;
-		try {
-			IP = IPUtilities.parseIpAddress(targetIP);
+	public static boolean unbanIPFromConsole(CommandSender sender, IPSubnet IP) throws EssentialsCommandException {
+		unbanIP(IP, sender, "for no good reason");
+		return true;
+	}
+	
+	@Command(command = "banstatus",
+			description = "tells you how the ban index is doing",
+			permissions = {"status"})
+	public static boolean banStatus(CommandSender sender) {
+		BanIndex index = getBanIndex();
+		BloomFilter filter = index.getFilter();
+		
+		ColourHandler.sendMessage(sender, "&eBan index: &f%s&e, &f%d &eactive bans (&f%d &eaddresses and subnets)",
+				index.isLoaded() ? "loaded" : "not loaded (using the database)",
+				index.size(),
+				index.getSubnetCount());
+		ColourHandler.sendMessage(sender, "&eExpiry wheel: &f%d &escheduled",
+				index.getScheduledCount());
+		ColourHandler.sendMessage(sender, "&eLookups: &f%d&e, &f%d &eanswered by the filter alone",
+				index.getLookupCount(),
+				index.getFilteredCount());
+		ColourHandler.sendMessage(sender, "&eFilter: &f%d &ebanees, &f%d &ebits (&f%.1f &eKB), &f%d &ehashes",
+				filter.getInsertions(),
+				filter.getBitCount(),
+				filter.getMemoryBytes() / 1024f,
+				filter.getHashCount());
+		ColourHandler.sendMessage(sender, "&eFilter false positive rate: &f%.3f%% &e(sized for &f%.3f%%&e)",
+				filter.getExpectedFalsePositiveRate() * 100,
+				filterFalsePositiveRate * 100);
+		ColourHandler.sendMessage(sender, "&eLogin throttle: &f%d &erecent decisions, &f%d &eaddresses tracked, &f%d &eattempts turned away",
+				loginDecisions.size(),
+				connectionLimiter.size(),
+				connectionLimiter.getRejectedCount());
+		
+		return true;
+	}
+	
+	@Command(command = "bans",
+			arguments = {"expiring"},
+			description = "lists the bans that will expire in the next day",
+			permissions = {"list.expiring"})
+	public static boolean bans(CommandSender sender, String what) throws EssentialsCommandException {
+		return bans(sender, what, 24);
+	}
+	
+	@Command(command = "bans",
+			arguments = {"expiring", "hours"},
+			description = "lists the bans that will expire in the given number of hours",
+			permissions = {"list.expiring"})
+	public static boolean bans(CommandSender sender, String what, int hours) throws EssentialsCommandException {
+		if(!what.equalsIgnoreCase("expiring")) {
+			throw new EssentialsCommandException("I don't know how to list '%s' bans! Try /bans expiring [hours]", what);
 		}
-		catch(Exception e) {
-			// nope
-			throw new EssentialsCommandException(e.getMessage());
+		if(hours <= 0) {
+			throw new EssentialsCommandException("The number of hours must be positive!");
 		}
 		
-		unbanIP(IP, sender, "for no good reason");
+		// straight from our index, no need to go through the ban logs
+		long now = System.currentTimeMillis();
+		ArrayList<BanEntry> expiring = getBanIndex().getExpiring(now + hours * 3600000L);
+		if(expiring.size() == 0) {
+			ColourHandler.sendMessage(sender, "&eNo bans expire in the next %d hours!", hours);
+			return true;
+		}
+		
+		ColourHandler.sendMessage(sender, "&6%d bans expire in the next %d hours:", expiring.size(), hours);
+		for(int i = 0; i < expiring.size() && i < MAX_EXPIRING_LISTED; i++) {
+			BanEntry entry = expiring.get(i);
+			ColourHandler.sendMessage(sender, "&f%s &ein &f%s &e(banned by &f%s&e: &f%s&e)",
+					entry.banee,
+					TimeFormat.formatDuration(entry.expiry.getTime() - now),
+					entry.banner,
+					entry.reason);
+		}
+		if(expiring.size() > MAX_EXPIRING_LISTED) {
+			ColourHandler.sendMessage(sender, "&e...and &f%d &emore", expiring.size() - MAX_EXPIRING_LISTED);
+		}
+		
+		return true;
+	}
+	
+	@Command(command = "banhistory",
+			arguments = {"player or ip"},
+			description = "lists everything that has happened to the player or ip's bans",
+			permissions = {"history"})
+	public static boolean banHistory(CommandSender sender, String target) throws EssentialsCommandException {
+		return banHistory(sender, target, 1);
+	}
+	
+	@Command(command = "banhistory",
+			arguments = {"player or ip", "page #"},
+			description = "lists everything that has happened to the player or ip's bans",
+			permissions = {"history"})
+	public static boolean banHistory(CommandSender sender, String target, int page) throws EssentialsCommandException {
+		// make sure we have an appropriate page
+		final int pageIndex = page - 1;
+		if(pageIndex < 0) {
+			throw new EssentialsCommandException("Can't list negative pages!");
+		}
+		
+		// ip bans are logged as their subnet, ie "/1.2.3.4"
+		String banee = target;
+		if(target.indexOf('.') >= 0 || target.indexOf(':') >= 0) {
+			try {
+				banee = IPSubnet.parse(target).toString();
+			}
+			catch(IllegalArgumentException e) {
+				// not an ip after all
+			}
+		}
+		final String baneeName = banee;
+		
+		// the latest entry is in our ban logs, everything before it is in the archive
+		DatabaseManager.pageQueryAsync(new CommandSenderCallback<Page<BanEntry>>(sender) {
+			@Override
+			public void onResult(Page<BanEntry> page) throws EssentialsCommandException {
+				// make sure our page exists
+				int totalPages = page.getTotalPages();
+				if(totalPages == 0) {
+					throw new EssentialsCommandException("%s has never been banned!", baneeName);
+				}
+				if(pageIndex >= totalPages) {
+					throw new EssentialsCommandException("There are only %d pages available!", totalPages);
+				}
+				
+				ColourHandler.sendMessage(sender, "&6Ban history for %s (page %d/%d):", baneeName, (pageIndex+1), totalPages);
+				for(BanEntry entry: page.getRows()) {
+					if(entry.isExpiryRecord()) {
+						ColourHandler.sendMessage(sender, "&7%s &eban expired", entry.date.toString());
+					}
+					else if(!entry.expiry.after(entry.date)) {
+						ColourHandler.sendMessage(sender, "&7%s &aunbanned by %s&7: &f%s",
+								entry.date.toString(),
+								entry.banner,
+								entry.reason);
+					}
+					else {
+						ColourHandler.sendMessage(sender, "&7%s &cbanned by %s until %s&7: &f%s",
+								entry.date.toString(),
+								entry.banner,
+								entry.expiry.toString(),
+								entry.reason);
+					}
+				}
+			}
+		}, BanEntry.MAPPER,
+				"select (select count(*) from banlogs where banee=?) + (select count(*) from banlogs_archive where banee=?);",
+				"select * from (select id, banee, banner, date, reason, expiry from banlogs where banee=?"
+				+ " union all select id, banee, banner, date, reason, expiry from banlogs_archive where banee=?) h"
+				+ " order by date desc, id desc;",
+				pageIndex, historyPerPage,
+				baneeName, baneeName);
+		
 		return true;
 	}
 }
@@ -19,7 +19,8 @@ public class Calculator {
 	@Command(command = "calc",
 			arguments = {"expression"},
 			description = "evaluates the expression and returns the result",
-			permissions = {"calc"})
+			permissions = {"calc"},
+			async = true)
 	public static boolean calculate(CommandSender sender, String... expressions) throws EssentialsCommandException {
 		// join our expression
 		StringBuilder sb = new StringBuilder();
@@ -1,5 +1,6 @@
 package com.mcnsa.essentials.components;
 
+import java.util.ArrayList;
 import java.util.Random;
 
 import org.bukkit.Bukkit;
@@ -10,8 +11,20 @@ import org.bukkit.entity.Player;
 import com.mcnsa.essentials.MCNSAEssentials;
 import com.mcnsa.essentials.annotations.Command;
 import com.mcnsa.essentials.annotations.ComponentInfo;
+import com.mcnsa.essentials.managers.AuditLogManager;
+import com.mcnsa.essentials.managers.CommandsManager;
+import com.mcnsa.essentials.managers.DatabaseManager;
+import com.mcnsa.essentials.managers.PermissionsManager;
 import com.mcnsa.essentials.runnables.TPSTimerTask;
+import com.mcnsa.essentials.utilities.CircuitBreaker;
 import com.mcnsa.essentials.utilities.ColourHandler;
+import com.mcnsa.essentials.utilities.CommandStatistics;
+import com.mcnsa.essentials.utilities.CommandStatistics.CommandStats;
+import com.mcnsa.essentials.utilities.ConnectionPool;
+import com.mcnsa.essentials.utilities.LatencyHistogram;
+import com.mcnsa.essentials.utilities.QueryStatistics;
+import com.mcnsa.essentials.utilities.QueryStatistics.QueryShape;
+import com.mcnsa.essentials.utilities.StatementCache;
 
 @ComponentInfo(friendlyName = "Debug",
 				description = "Various server debugging utilities",
@@ -95,6 +108,159 @@ public class Debug {
 		return true;
 	}
 	
+	@Command(command = "dbstatus",
+			description = "tells you the status of the database connection pool",
+			permissions = {"dbstatus"})
+	public static boolean databaseStatus(CommandSender sender) {
+		ConnectionPool pool = DatabaseManager.getConnectionPool();
+		if(pool == null) {
+			ColourHandler.sendMessage(sender, "&cNot connected to a database!");
+			return true;
+		}
+		
+		ColourHandler.sendMessage(sender, "&eConnection pool: &f%d &eactive, &f%d &eidle, &f%d&e/&f%d &etotal (min &f%d&e)",
+				pool.getActiveConnections(),
+				pool.getIdleConnections(),
+				pool.getTotalConnections(),
+				pool.getMaxSize(),
+				pool.getMinSize());
+		ColourHandler.sendMessage(sender, "&eBorrowed: &f%d&e, waited: &f%d&e, timed out: &f%d",
+				pool.getBorrowCount(),
+				pool.getWaitCount(),
+				pool.getTimeoutCount());
+		ColourHandler.sendMessage(sender, "&eCreated: &f%d&e, evicted: &f%d&e, failed validation: &f%d",
+				pool.getCreatedCount(),
+				pool.getEvictedCount(),
+				pool.getInvalidCount());
+		CircuitBreaker breaker = DatabaseManager.getCircuitBreaker();
+		ColourHandler.sendMessage(sender, "&eCircuit breaker: &f%s&e, &f%d &econsecutive failures, tripped &f%d &etimes, rejected &f%d &equeries",
+				breaker.getState().toString().toLowerCase(),
+				breaker.getConsecutiveFailures(),
+				breaker.getTripCount(),
+				breaker.getRejectedCount());
+		ColourHandler.sendMessage(sender, "&eStatement cache: &f%d &ehits, &f%d &emisses, &f%d &eevicted (&f%d &eper connection)",
+				StatementCache.getHitCount(),
+				StatementCache.getMissCount(),
+				StatementCache.getEvictionCount(),
+				pool.getStatementCacheSize());
+		ColourHandler.sendMessage(sender, "&eAudit log: &f%d &epending, &f%d &equeued, &f%d &ewritten in &f%d &ebatches",
+				AuditLogManager.getPendingCount(),
+				AuditLogManager.getQueuedCount(),
+				AuditLogManager.getWrittenCount(),
+				AuditLogManager.getBatchCount());
+		ColourHandler.sendMessage(sender, "&eAudit log: &f%d &eretried, &f%d &edropped",
+				AuditLogManager.getRetriedCount(),
+				AuditLogManager.getDroppedCount());
+		
+		return true;
+	}
+	
+	@Command(command = "permstatus",
+			description = "tells you how well the permission cache is doing",
+			permissions = {"permstatus"})
+	public static boolean permissionStatus(CommandSender sender) {
+		long hits = PermissionsManager.getHitCount();
+		long misses = PermissionsManager.getMissCount();
+		ColourHandler.sendMessage(sender, "&ePermission checks: &f%d &ecached, &f%d &easked (&f%.1f%% &ehit rate)",
+				hits,
+				misses,
+				(hits + misses) == 0 ? 0f : hits * 100f / (hits + misses));
+		ColourHandler.sendMessage(sender, "&ePermission cache: &f%d &eplayers, &f%d &enodes, &f%d &einvalidations",
+				PermissionsManager.getCachedPlayerCount(),
+				PermissionsManager.getNodeCount(),
+				PermissionsManager.getInvalidationCount());
+		
+		return true;
+	}
+	
+	@Command(command = "dbstats",
+			description = "shows the queries that have taken the most time",
+			permissions = {"dbstats"})
+	public static boolean databaseStats(CommandSender sender) {
+		return databaseStats(sender, 5);
+	}
+	
+	@Command(command = "dbstats",
+			arguments = {"number of queries"},
+			description = "shows the given number of queries that have taken the most time",
+			permissions = {"dbstats"})
+	public static boolean databaseStats(CommandSender sender, int count) {
+		QueryStatistics statistics = DatabaseManager.getQueryStatistics();
+		ArrayList<QueryShape> shapes = statistics.getTopShapes(Math.max(1, count));
+		if(shapes.size() == 0) {
+			ColourHandler.sendMessage(sender, "&eNo queries have been run yet!");
+			return true;
+		}
+		
+		ColourHandler.sendMessage(sender, "&6Top %d of %d queries by total time:", shapes.size(), statistics.getShapeCount());
+		for(int i = 0; i < shapes.size(); i++) {
+			QueryShape shape = shapes.get(i);
+			LatencyHistogram latency = shape.getLatency();
+			
+			// keep long queries to a single line
+			String query = shape.getQuery();
+			if(query.length() > 60) {
+				query = query.substring(0, 57) + "...";
+			}
+			
+			ColourHandler.sendMessage(sender, "&e%d. &f%s", (i+1), query);
+			ColourHandler.sendMessage(sender, "  &f%d &ecalls (&f%d &eon main thread), &f%d &ems total, &f%.1f &erows avg, &f%d &eslow, &f%d &efailed",
+					latency.getCount(),
+					shape.getMainThreadCount(),
+					latency.getTotalNanos() / 1000000,
+					(float)shape.getRows() / latency.getCount(),
+					shape.getSlowCount(),
+					shape.getFailures());
+			ColourHandler.sendMessage(sender, "  &ep50 &f%.1f&ems, p95 &f%.1f&ems, p99 &f%.1f&ems, max &f%.1f&ems",
+					latency.getPercentileNanos(0.5) / 1000000f,
+					latency.getPercentileNanos(0.95) / 1000000f,
+					latency.getPercentileNanos(0.99) / 1000000f,
+					latency.getMaxNanos() / 1000000f);
+		}
+		
+		return true;
+	}
+	
+	@Command(command = "cmdstats",
+			description = "shows the commands that have taken the most time",
+			permissions = {"cmdstats"})
+	public static boolean commandStats(CommandSender sender) {
+		return commandStats(sender, 5);
+	}
+	
+	@Command(command = "cmdstats",
+			arguments = {"number of commands"},
+			description = "shows the given number of commands that have taken the most time",
+			permissions = {"cmdstats"})
+	public static boolean commandStats(CommandSender sender, int count) {
+		CommandStatistics statistics = CommandsManager.getStatistics();
+		ArrayList<CommandStats> commands = statistics.getTopCommands(Math.max(1, count));
+		if(commands.size() == 0) {
+			ColourHandler.sendMessage(sender, "&eNo commands have been run yet!");
+			return true;
+		}
+		
+		ColourHandler.sendMessage(sender, "&6Top %d of %d commands by total time:", commands.size(), statistics.getCommandCount());
+		for(int i = 0; i < commands.size(); i++) {
+			CommandStats stats = commands.get(i);
+			LatencyHistogram latency = stats.getLatency();
+			
+			ColourHandler.sendMessage(sender, "&e%d. &f%s%s", (i+1), stats.getRegistration(), stats.isAsync() ? " &7(async)" : "");
+			ColourHandler.sendMessage(sender, "  &f%d &ecalls, &f%d &ems total, &f%d &eslow, &f%d &efailed",
+					latency.getCount(),
+					latency.getTotalNanos() / 1000000,
+					stats.getSlowCount(),
+					stats.getFailures());
+			ColourHandler.sendMessage(sender, "  &ep50 &f%.1f&ems, p95 &f%.1f&ems, p99 &f%.1f&ems, max &f%.1f&ems",
+					latency.getPercentileNanos(0.5) / 1000000f,
+					latency.getPercentileNanos(0.95) / 1000000f,
+					latency.getPercentileNanos(0.99) / 1000000f,
+					latency.getMaxNanos() / 1000000f);
+		}
+		
+		return true;
+	}
+	
 	private static String[] metaKeys = {
 		"godMode",
 		"vanished",
@@ -1,7 +1,8 @@
 package com.mcnsa.essentials.components;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -18,18 +19,68 @@ import com.mcnsa.essentials.annotations.ComponentInfo;
 import com.mcnsa.essentials.annotations.DatabaseTableInfo;
 import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.interfaces.RowMapper;
+import com.mcnsa.essentials.interfaces.UnitOfWork;
 import com.mcnsa.essentials.managers.DatabaseManager;
 import com.mcnsa.essentials.utilities.ColourHandler;
+import com.mcnsa.essentials.utilities.CommandSenderCallback;
 import com.mcnsa.essentials.utilities.PlayerSelector;
+import com.mcnsa.essentials.utilities.Transaction;
 
 @ComponentInfo(friendlyName = "Home",
 				description = "Lets players specify homes",
 				permsSettingsPrefix = "home")
 @DatabaseTableInfo(name = "homes",
-					fields = { "owner TINYTEXT", "name TINYTEXT", "world TINYTEXT", "x FLOAT", "y FLOAT", "z FLOAT" })
+					fields = { "owner TINYTEXT", "name TINYTEXT", "world TINYTEXT", "x FLOAT", "y FLOAT", "z FLOAT" },
+					uniqueIndexes = { "owner(16), name(32)" },
+					migrations = {
+						// rename anything that would clash in the unique index (or when matching names ignoring case),
+						// leaving the newest alone, ie "home" becomes "home~12" (still within the indexed 32 characters)
+						// (nested replaces rather than concatenation, which every database spells differently)
+						"update homes set name = replace(replace('{name}~{id}', '{id}', id), '{name}', substr(name, 1, 31 - length(id))) "
+							+ "where id not in (select id from (select max(id) as id from homes group by lower(substr(owner, 1, 16)), lower(substr(name, 1, 32))) newest);"
+					})
 public class Home implements Listener {
 	@Setting(node = "max-homes") public static int maxHomes = 5;
 	
+	// as much of a name as our unique index looks at
+	private static final int MAX_NAME_LENGTH = 32;
+	
+	// a single row of our homes table
+	public static class HomeEntry {
+		public static final RowMapper<HomeEntry> MAPPER = new RowMapper<HomeEntry>() {
+			private final String[] columns = {"id", "owner", "name", "world", "x", "y", "z"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public HomeEntry mapRow(ResultSet results, int[] columns) throws SQLException {
+				HomeEntry entry = new HomeEntry();
+				entry.id = results.getInt(columns[0]);
+				entry.owner = results.getString(columns[1]);
+				entry.name = results.getString(columns[2]);
+				entry.world = results.getString(columns[3]);
+				entry.x = results.getFloat(columns[4]);
+				entry.y = results.getFloat(columns[5]);
+				entry.z = results.getFloat(columns[6]);
+				return entry;
+			}
+		};
+		
+		public int id;
+		public String owner;
+		public String name;
+		public String world;
+		public float x, y, z;
+		
+		public Location getLocation() {
+			return new Location(Bukkit.getServer().getWorld(world), x, y, z);
+		}
+	}
+	
 	public Home() {
 		// and register our events
 		Bukkit.getServer().getPluginManager().registerEvents(this, MCNSAEssentials.getInstance());
@@ -39,13 +90,13 @@ public class Home implements Listener {
 	public void onPlayerRespawn(PlayerRespawnEvent event) {
 		try {
 			// first try to get our "default" home
-			ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery(
+			ArrayList<HomeEntry> results = DatabaseManager.accessQuery(HomeEntry.MAPPER,
 					"select * from homes where owner=? and name=?;",
 					event.getPlayer().getName(), "default");
 			// if we don't have a "default" home, get the first one
 			if(results.size() != 1) {
 				// grab our first home
-				results = DatabaseManager.accessQuery(
+				results = DatabaseManager.accessQuery(HomeEntry.MAPPER,
 						"select * from homes where owner=? order by id limit 1;",
 						event.getPlayer().getName());
 				if(results.size() != 1){
@@ -55,15 +106,8 @@ public class Home implements Listener {
 			}
 			
 			// we DO have a home!
-			// make a location
-			Location location = new Location(
-					Bukkit.getServer().getWorld((String)results.get(0).get("world")),
-					(Float)results.get(0).get("x"),
-					(Float)results.get(0).get("y"),
-					(Float)results.get(0).get("z"));
-
 			// take us there!
-			event.setRespawnLocation(location);
+			event.setRespawnLocation(results.get(0).getLocation());
 		}
 		catch(Exception e) {
 			// ignore if something goes wrong!
@@ -77,35 +121,40 @@ public class Home implements Listener {
 	public static boolean homes(CommandSender sender) throws EssentialsCommandException {
 		return homes(sender, sender.getName());
 	}
-
+	
 	@Command(command = "homes",
 			arguments = {"player"},
 			description = "lists the homes of the given player",
 			permissions = {"list.other"})
 	public static boolean homes(CommandSender sender, String playerTarget) throws EssentialsCommandException {
 		// try to get our targetPlayer
-		playerTarget = PlayerSelector.selectSinglePlayer(playerTarget).getName();
+		final String targetName = PlayerSelector.selectSinglePlayer(playerTarget).getName();
 		
-		// get a resultset of all our kits
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery("select * from homes where owner=?;", playerTarget);
-		if(results.size() == 0) {
-			ColourHandler.sendMessage(sender, "&e'%s' doesn't have any homes defined!", playerTarget);
-			return true;
-		}
-		
-		ColourHandler.sendMessage(sender, "%s&6's homes:", playerTarget);
-		String homeList = "";
-		for(int i = 0; i < results.size(); i++) {
-			if(i != 0) {
-				homeList += "&6, ";
+		// get a resultset of all our homes
+		DatabaseManager.accessQueryAsync(new CommandSenderCallback<ArrayList<HomeEntry>>(sender) {
+			@Override
+			public void onResult(ArrayList<HomeEntry> results) throws EssentialsCommandException {
+				if(results.size() == 0) {
+					ColourHandler.sendMessage(sender, "&e'%s' doesn't have any homes defined!", targetName);
+					return;
+				}
+				
+				ColourHandler.sendMessage(sender, "%s&6's homes:", targetName);
+				String homeList = "";
+				for(int i = 0; i < results.size(); i++) {
+					if(i != 0) {
+						homeList += "&6, ";
+					}
+					HomeEntry home = results.get(i);
+					homeList += "&f" + home.name + " &e(" + home.x + ", " + home.y + ", " + home.z + ")";
+				}
+				ColourHandler.sendMessage(sender, homeList);
 			}
-			homeList += "&f" + (String)results.get(i).get("name") + " &e(" + results.get(i).get("x") + ", " + results.get(i).get("y") + ", " + results.get(i).get("z") + ")";
-		}
-		ColourHandler.sendMessage(sender, homeList);
+		}, HomeEntry.MAPPER, "select * from homes where owner=?;", targetName);
 		
 		return true;
 	}
-
+	
 	@Command(command = "sethome",
 		description = "sets your default home to your current location",
 		permissions = {"set.self"},
@@ -113,7 +162,7 @@ public class Home implements Listener {
 	public static boolean sethome(CommandSender sender) throws EssentialsCommandException {
 		return setHome(sender, sender.getName(), "default");
 	}
-
+	
 	@Command(command = "sethome",
 		arguments = {"home name"},
 		description = "sets a to your current location",
@@ -122,7 +171,7 @@ public class Home implements Listener {
 	public static boolean sethome(CommandSender sender, String homeName) throws EssentialsCommandException {
 		return setHome(sender, sender.getName(), homeName);
 	}
-
+	
 	@Command(command = "sethome",
 		arguments = {"target player[s]", "home name"},
 		description = "sets target player[s] home[s] to your current location",
@@ -133,91 +182,100 @@ public class Home implements Listener {
 		Player player = (Player)sender;
 		
 		// try to get our targetPlayer
-		targetPlayer = PlayerSelector.selectSinglePlayer(targetPlayer).getName();
+		final String owner = PlayerSelector.selectSinglePlayer(targetPlayer).getName();
+		final String name = homeName;
+		final Location location = player.getLocation();
 		
-		// first, determine if our home already exists
-		// and count home many homes we have
-		// get a resultset of all our kits
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery("select * from homes where owner=?;", targetPlayer);
-		int currentNumberOfHomes = results.size();
-		boolean exists = false;
-		for(int i = 0; i < results.size(); i++) {
-			if(((String)results.get(i).get("name")).equals(homeName)) {
-				exists = true;
-				break;
-			}
+		// longer names would clash with each other
+		if(name.length() > MAX_NAME_LENGTH) {
+			throw new EssentialsCommandException("Home names can't be longer than %d characters!", MAX_NAME_LENGTH);
 		}
 		
-		// change what we do based on whether it exists or not
-		if(exists) {
-			// set our home
-			int insertionResults = DatabaseManager.updateQuery(
-					"updates homes set world=?, x=?, y=?, z=? where owner=? and homeName=?;",
-					player.getWorld().getName(),
-					player.getLocation().getBlockX(),
-					player.getLocation().getBlockY(),
-					player.getLocation().getBlockZ(),
-					targetPlayer,
-					homeName);
-			
-			// make sure it worked!
-			if(insertionResults == 0) {
-				throw new EssentialsCommandException("Failed to set your home!");
-			}
-			
-			ColourHandler.sendMessage(sender, "&a%s's home '%s' has been set!", targetPlayer, homeName);
-		}
-		else {
-			// insert, but only if we don't have too many homes already
-			if(currentNumberOfHomes >= maxHomes) {
-				ColourHandler.sendMessage(sender, "&6%s already has too many homes!", targetPlayer);
+		// count our homes and set this one in a single transaction,
+		// so two at once can't sneak past our limit
+		boolean set = DatabaseManager.transaction(new UnitOfWork<Boolean>() {
+			@Override
+			public Boolean execute(Transaction transaction) throws EssentialsCommandException {
+				// first, determine if our home already exists
+				// and count home many homes we have
+				// (ignoring case, like mysql and our unique index do)
+				ArrayList<HomeEntry> results = transaction.accessQueryForUpdate(HomeEntry.MAPPER, "select * from homes where owner=?;", owner);
+				HomeEntry existing = null;
+				for(int i = 0; i < results.size(); i++) {
+					if(results.get(i).name.equalsIgnoreCase(name)) {
+						existing = results.get(i);
+						break;
+					}
+				}
+				
+				// only add a new one if we don't have too many homes already
+				if(existing == null && results.size() >= maxHomes) {
+					return false;
+				}
+				
+				// set our home
+				int insertionResults = 0;
+				if(existing != null) {
+					insertionResults = transaction.updateQuery(
+							"update homes set name=?, world=?, x=?, y=?, z=? where id=?;",
+							name,
+							location.getWorld().getName(),
+							location.getBlockX(),
+							location.getBlockY(),
+							location.getBlockZ(),
+							existing.id);
+				}
+				else {
+					insertionResults = transaction.updateQuery(
+							"insert into homes (id, owner, name, world, x, y, z) values (NULL, ?, ?, ?, ?, ?, ?);",
+							owner,
+							name,
+							location.getWorld().getName(),
+							location.getBlockX(),
+							location.getBlockY(),
+							location.getBlockZ());
+				}
+				
+				// make sure it worked!
+				if(insertionResults == 0) {
+					throw new EssentialsCommandException("Failed to set your home!");
+				}
 				return true;
 			}
-			
-			// set our home
-			int insertionResults = DatabaseManager.updateQuery(
-					"insert into homes (id, owner, name, world, x, y, z) values (NULL, ?, ?, ?, ?, ?, ?);",
-					targetPlayer,
-					homeName,
-					player.getWorld().getName(),
-					player.getLocation().getBlockX(),
-					player.getLocation().getBlockY(),
-					player.getLocation().getBlockZ());
-			
-			// make sure it worked!
-			if(insertionResults == 0) {
-				throw new EssentialsCommandException("Failed to set your home!");
-			}
-			
-			ColourHandler.sendMessage(sender, "&a%s's home '%s' has been set!", targetPlayer, homeName);
+		});
+		
+		if(!set) {
+			ColourHandler.sendMessage(sender, "&6%s already has too many homes!", owner);
+			return true;
 		}
 		
+		ColourHandler.sendMessage(sender, "&a%s's home '%s' has been set!", owner, homeName);
 		return true;
 	}
-
+	
 	@Command(command = "home",
 		description = "takes you to your default home",
 		permissions = {"self"},
 		playerOnly = true)
 	public static boolean home(CommandSender sender) throws EssentialsCommandException {
 		// first try to get our "default" home
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery("select * from homes where owner=? and name=?;", sender.getName(), "default");
+		ArrayList<HomeEntry> results = DatabaseManager.accessQuery(HomeEntry.MAPPER, "select * from homes where owner=? and name=?;", sender.getName(), "default");
 		// if we don't have a "default" home, get the first one
 		if(results.size() != 1){
 			// grab our first name
-			results = DatabaseManager.accessQuery("select * from homes where owner=? limit 1;", sender.getName());
+			results = DatabaseManager.accessQuery(HomeEntry.MAPPER, "select * from homes where owner=? limit 1;", sender.getName());
 			if(results.size() != 1){
 				throw new EssentialsCommandException("You don't have any homes defined");
 			}
 		}
 		
 		// get our home name
-		String homeName = (String)results.get(0).get("name");
+		String homeName = results.get(0).name;
 		
 		// do it
 		return home(sender, sender.getName(), homeName);
 	}
-
+	
 	@Command(command = "home",
 		arguments = {"home name"},
 		description = "takes you to your saved home",
@@ -226,7 +284,7 @@ public class Home implements Listener {
 	public static boolean home(CommandSender sender, String homeName) throws EssentialsCommandException {
 		return home(sender, sender.getName(), homeName);
 	}
-
+	
 	@Command(command = "home",
 		arguments = {"player", "home name"},
 		description = "takes you to the players saved home",
@@ -242,19 +300,12 @@ public class Home implements Listener {
 		// first, determine if our home already exists
 		// and count home many homes we have
 		// get a resultset of all our kits
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery("select * from homes where owner=? and name=?;", playerTarget, homeName);
+		ArrayList<HomeEntry> results = DatabaseManager.accessQuery(HomeEntry.MAPPER, "select * from homes where owner=? and name=?;", playerTarget, homeName);
 		for(int i = 0; i < results.size(); i++) {
-			if(((String)results.get(i).get("name")).equals(homeName)) {
+			if(results.get(i).name.equalsIgnoreCase(homeName)) {
 				// we found it!
-				// make a location
-				Location location = new Location(
-						Bukkit.getServer().getWorld((String)results.get(i).get("world")),
-						(Float)results.get(i).get("x"),
-						(Float)results.get(i).get("y"),
-						(Float)results.get(i).get("z"));
-				
 				// teleport us!
-				player.teleport(location);
+				player.teleport(results.get(i).getLocation());
 				
 				// alert
 				if(sender.getName().equals(playerTarget)){
@@ -2,6 +2,7 @@ package com.mcnsa.essentials.components;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
@@ -9,13 +10,14 @@ import org.bukkit.entity.Player;
 import com.mcnsa.essentials.annotations.Command;
 import com.mcnsa.essentials.annotations.ComponentInfo;
 import com.mcnsa.essentials.annotations.DatabaseTableInfo;
+import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
 import com.mcnsa.essentials.interfaces.MultilineChatHandler;
-import com.mcnsa.essentials.managers.DatabaseManager;
+import com.mcnsa.essentials.managers.AuditLogManager;
+import com.mcnsa.essentials.utilities.BulkOperation;
 import com.mcnsa.essentials.utilities.ColourHandler;
 import com.mcnsa.essentials.utilities.Logger;
 import com.mcnsa.essentials.utilities.MultilineChatEntry;
-import com.mcnsa.essentials.utilities.PlayerSelector;
 
 @ComponentInfo(friendlyName = "Kick",
 				description = "Commands to kick players",
@@ -23,6 +25,11 @@ import com.mcnsa.essentials.utilities.PlayerSelector;
 @DatabaseTableInfo(name = "kicklogs",
 					fields = { "kickee TINYTEXT", "kicker TINYTEXT", "date TIMESTAMP", "reason TINYTEXT" })
 public class Kick implements MultilineChatHandler {
+	@Setting(node = "bulk.kicks-per-tick") public static int bulkKicksPerTick = 5;
+	
+	private static final String KICK_LOG_QUERY =
+			"insert into kicklogs (id, kickee, kicker, date, reason) values (NULL, ?, ?, ?, ?);";
+	
 	private static Kick instance = null;
 	
 	public Kick() {
@@ -31,17 +38,37 @@ public class Kick implements MultilineChatHandler {
 	
 	public static void recordKick(String kicker, String kickee, String reason) throws EssentialsCommandException {
 		// add our kick
-		int results = DatabaseManager.updateQuery(
-				"insert into kicklogs (id, kickee, kicker, date, reason) values (NULL, ?, ?, ?, ?);",
-				kicker,
+		AuditLogManager.log(KICK_LOG_QUERY,
 				kickee,
+				kicker,
 				new Timestamp(System.currentTimeMillis()),
 				reason);
+	}
+	
+	// kicks everyone at once, their kick log rows all go out in one batch
+	// and they're kicked over the next few ticks
+	private static void kickAll(ArrayList<Player> kickees, CommandSender kicker, String reason) {
+		BulkOperation operation = new BulkOperation(kicker, "&6You kicked the following people:", KICK_LOG_QUERY);
+		String kickerName = kicker.getName();
+		String notice = ColourHandler.processColours("&cYou have been kicked by %s: %s", kickerName, reason);
+		Timestamp now = new Timestamp(System.currentTimeMillis());
 		
-		// make sure it worked!
-		if(results == 0) {
-			throw new EssentialsCommandException("Failed to log kick!");
+		for(Player target: kickees) {
+			// make sure the target still exists
+			if(target == null) {
+				continue;
+			}
+			
+			// log it
+			Logger.log("%s kicked %s: %s", kickerName, target.getName(), reason);
+			operation.add(target, notice, reason,
+					target.getName(),
+					kickerName,
+					now,
+					reason);
 		}
+		
+		operation.execute(bulkKicksPerTick);
 	}
 	
 	@Command(command = "kick",
@@ -49,33 +76,12 @@ public class Kick implements MultilineChatHandler {
 			description = "kicks the target player[s] for a given reason",
 			permissions = {"kick"},
 			consoleOnly = true)
-	public static boolean kickFromConsole(CommandSender sender, String targetPlayer) throws EssentialsCommandException {
-		// get a list of all target players
-		ArrayList<Player> targetPlayers = PlayerSelector.selectPlayersExact(targetPlayer);
-		
-		// make sure we have at least one target player
-		if(targetPlayers.size() == 0) {
-			throw new EssentialsCommandException("I couldn't find / parse target player[s] '%s' to kick!", targetPlayer);
-		}
-		
+	public static boolean kickFromConsole(CommandSender sender, Player[] targetPlayers) throws EssentialsCommandException {
 		// dummy reason
 		String reason = "no good reason";
-		String playerName = sender.getName();
 		
-		// loop over all our targets
-		String playerListString = "";
-		for(Player target: targetPlayers) {
-			if(!playerListString.equals("")) {
-				playerListString += "&6, ";
-			}
-			ColourHandler.sendMessage(target, "&cYou have been kicked by %s: %s", playerName, reason);
-			target.kickPlayer(reason);
-			playerListString += "&e" + target.getName();
-			
-			// log it
-			Logger.log("%s kicked %s: %s", playerName, target.getName(), reason);
-			recordKick(playerName, target.getName(), reason);
-		}
+		// kick them all
+		kickAll(new ArrayList<Player>(Arrays.asList(targetPlayers)), sender, reason);
 		
 		return true;
 	}
@@ -85,51 +91,19 @@ public class Kick implements MultilineChatHandler {
 			description = "kicks the target player[s]",
 			permissions = {"kick"},
 			playerOnly = true)
-	public static boolean kick(CommandSender sender, String targetPlayer) throws EssentialsCommandException {
-		// get a list of all target players
-		ArrayList<Player> targetPlayers = PlayerSelector.selectPlayersExact(targetPlayer);
-		
-		// make sure we have at least one target player
-		if(targetPlayers.size() == 0) {
-			throw new EssentialsCommandException("I couldn't find / parse target player[s] '%s' to kick!", targetPlayer);
-		}
-		
+	public static boolean kick(CommandSender sender, Player[] targetPlayers) throws EssentialsCommandException {
 		// call our multiline chat handler
-		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, targetPlayers);
+		MultilineChatEntry.scheduleMultilineTextEntry((Player)sender, instance, new ArrayList<Player>(Arrays.asList(targetPlayers)));
 		
 		return true;
 	}
-
+	
 	@Override
 	public void onChatComplete(Player player, String reason, Object... playerList) throws EssentialsCommandException {
 		// kick everyone on our list
 		@SuppressWarnings("unchecked")
 		ArrayList<Player> targetPlayers = (ArrayList<Player>)playerList[0];
 		
-		String playerName = player.getName();
-		String playerListString = "";
-		for(Player target: targetPlayers) {
-			// make sure the target still exists
-			if(target == null) {
-				continue;
-			}
-			
-			if(!playerListString.equals("")) {
-				playerListString += "&6, ";
-			}
-			ColourHandler.sendMessage(target, "&cYou have been kicked by %s: %s", playerName, reason);
-			target.kickPlayer(reason);
-			playerListString += "&e" + target.getName();
-			
-			// log it
-			Logger.log("%s kicked %s: %s", playerName, target.getName(), reason);
-			recordKick(playerName, target.getName(), reason);
-		}
-		
-		// send the message to the kicking player
-		if(player != null) {
-			ColourHandler.sendMessage(player, "&6You kicked the following people:");
-			ColourHandler.sendMessage(player, playerListString);
-		}
+		kickAll(targetPlayers, player, reason);
 	}
 }
@@ -1,7 +1,8 @@
 package com.mcnsa.essentials.components;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
@@ -11,32 +12,70 @@ import com.mcnsa.essentials.annotations.Command;
 import com.mcnsa.essentials.annotations.ComponentInfo;
 import com.mcnsa.essentials.annotations.DatabaseTableInfo;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.interfaces.RowMapper;
+import com.mcnsa.essentials.interfaces.RowVisitor;
 import com.mcnsa.essentials.managers.DatabaseManager;
 import com.mcnsa.essentials.utilities.ColourHandler;
+import com.mcnsa.essentials.utilities.CommandSenderCallback;
 import com.mcnsa.essentials.utilities.ItemSelector;
-import com.mcnsa.essentials.utilities.PlayerSelector;
 
 @ComponentInfo(friendlyName = "Kit",
 				description = "Commands to give sets of items",
 				permsSettingsPrefix = "kit")
 @DatabaseTableInfo(name = "kits",
-					fields = { "name TINYTEXT", "items TINYTEXT" })
+					fields = { "name TINYTEXT", "items TINYTEXT" },
+					indexes = { "name(32)" })
 public class Kit {
+	// a single row of our kits table
+	public static class KitEntry {
+		public static final RowMapper<KitEntry> MAPPER = new RowMapper<KitEntry>() {
+			private final String[] columns = {"id", "name", "items"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public KitEntry mapRow(ResultSet results, int[] columns) throws SQLException {
+				KitEntry entry = new KitEntry();
+				entry.id = results.getInt(columns[0]);
+				entry.name = results.getString(columns[1]);
+				entry.items = results.getString(columns[2]);
+				return entry;
+			}
+		};
+		
+		public int id;
+		public String name;
+		public String items;
+	}
+	
 	@Command(command = "kits",
 			description = "lists all available kits",
 			permissions = {"list"})
 	public static boolean listKits(CommandSender sender) throws EssentialsCommandException {
-		// get a resultset of all our kits
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery("select * from kits;");
-
-		ColourHandler.sendMessage(sender, "&6Available Kits:");
-		for(HashMap<String, Object> row: results) {
-			ColourHandler.sendMessage(sender, "%s &e(%s)", row.get("name"), row.get("items"));
-		}
+		// read through our kits, only keeping what we're going to print
+		final ArrayList<String> lines = new ArrayList<String>();
+		DatabaseManager.streamQueryAsync(new CommandSenderCallback<Integer>(sender) {
+			@Override
+			public void onResult(Integer numKits) throws EssentialsCommandException {
+				ColourHandler.sendMessage(sender, "&6Available Kits:");
+				for(String line: lines) {
+					ColourHandler.sendMessage(sender, line);
+				}
+			}
+		}, KitEntry.MAPPER, new RowVisitor<KitEntry>() {
+			@Override
+			public boolean visit(KitEntry kit) {
+				lines.add(String.format("%s &e(%s)", kit.name, kit.items));
+				return true;
+			}
+		}, "select * from kits;");
 		
 		return true;
 	}
-
+	
 	@Command(command = "newkit",
 			aliases = {"addkit"},
 			arguments = {"name", "items"},
@@ -56,31 +95,23 @@ public class Kit {
 		
 		return true;
 	}
-
+	
 	@Command(command = "kit",
 			arguments = {"desired kit"},
 			description = "gives you your desired kit",
 			permissions = {"give.self"},
 			playerOnly = true)
 	public static boolean kit(CommandSender sender, String kit) throws EssentialsCommandException {
-		return kit(sender, sender.getName(), kit);
+		return kit(sender, new Player[]{(Player)sender}, kit);
 	}
-
+	
 	@Command(command = "kit",
 			arguments = {"target player[s]", "desired kit"},
 			description = "gives target player[s] your desired kit",
 			permissions = {"give.others"})
-	public static boolean kit(CommandSender sender, String targetPlayer, String kit) throws EssentialsCommandException {
-		// get a list of all target players
-		ArrayList<Player> targetPlayers = PlayerSelector.selectPlayersExact(targetPlayer);
-		
-		// make sure we have at least one target player
-		if(targetPlayers.size() == 0) {
-			throw new EssentialsCommandException("I couldn't find / parse target player[s] '%s' to give a kit to!", targetPlayer);
-		}
-		
+	public static boolean kit(CommandSender sender, Player[] targetPlayers, String kit) throws EssentialsCommandException {
 		// make sure our kit is valid
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery(
+		ArrayList<KitEntry> results = DatabaseManager.accessQuery(KitEntry.MAPPER,
 				"select * from kits where name=?;",
 				kit);
 		if(results.size() != 1) {
@@ -88,7 +119,7 @@ public class Kit {
 		}
 		
 		// get our kit string
-		String kitDefinition = (String)results.get(0).get("items");
+		String kitDefinition = results.get(0).items;
 		String[] kitItems = kitDefinition.split(";");
 		
 		// get our kit items
@@ -1,5 +1,7 @@
 package com.mcnsa.essentials.components;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -20,23 +22,76 @@ import com.mcnsa.essentials.annotations.DatabaseTableInfo;
 import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
 import com.mcnsa.essentials.interfaces.MultilineChatHandler;
+import com.mcnsa.essentials.interfaces.RowMapper;
 import com.mcnsa.essentials.managers.DatabaseManager;
 import com.mcnsa.essentials.runnables.MailTimerTask;
 import com.mcnsa.essentials.utilities.ColourHandler;
+import com.mcnsa.essentials.utilities.CommandSenderCallback;
 import com.mcnsa.essentials.utilities.MultilineChatEntry;
+import com.mcnsa.essentials.utilities.Page;
 import com.mcnsa.essentials.utilities.PlayerSelector;
 
 @ComponentInfo(friendlyName = "Mail",
 				description = "Provides inter-player mail",
 				permsSettingsPrefix = "mail")
 @DatabaseTableInfo(name = "mail",
-					fields = { "recipient TINYTEXT", "sender TINYTEXT", "date TIMESTAMP", "subject TINYTEXT", "contents TEXT", "unread BOOLEAN" })
+					fields = { "recipient TINYTEXT", "sender TINYTEXT", "date TIMESTAMP", "subject TINYTEXT", "contents TEXT", "unread BOOLEAN" },
+					indexes = { "recipient(16), unread", "recipient(16), date" })
 public class Mail implements Listener, MultilineChatHandler {
 	@Setting(node = "messages-per-page") public static int MESSAGES_PER_PAGE = 5;
 	@Setting(node = "update-interval-minutes") public static float UPDATE_INTERVAL = 5f;
 	
 	private static Mail instance;
 	
+	// a single row of our mail table
+	public static class MailEntry {
+		// everything but the contents, for listing inboxes
+		public static final RowMapper<MailEntry> SUMMARY_MAPPER = new RowMapper<MailEntry>() {
+			private final String[] columns = {"id", "sender", "date", "subject", "unread"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public MailEntry mapRow(ResultSet results, int[] columns) throws SQLException {
+				MailEntry entry = new MailEntry();
+				entry.id = results.getInt(columns[0]);
+				entry.sender = results.getString(columns[1]);
+				entry.date = results.getTimestamp(columns[2]);
+				entry.subject = results.getString(columns[3]);
+				entry.unread = results.getBoolean(columns[4]);
+				return entry;
+			}
+		};
+		
+		public static final RowMapper<MailEntry> MAPPER = new RowMapper<MailEntry>() {
+			private final String[] columns = {"id", "sender", "date", "subject", "unread", "recipient", "contents"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public MailEntry mapRow(ResultSet results, int[] columns) throws SQLException {
+				MailEntry entry = SUMMARY_MAPPER.mapRow(results, columns);
+				entry.recipient = results.getString(columns[5]);
+				entry.contents = results.getString(columns[6]);
+				return entry;
+			}
+		};
+		
+		public int id;
+		public String recipient;
+		public String sender;
+		public Timestamp date;
+		public String subject;
+		public String contents;
+		public boolean unread;
+	}
+	
 	public Mail() {
 		instance = this;
 		
@@ -59,7 +114,14 @@ public class Mail implements Listener, MultilineChatHandler {
 	
 	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
 	public void onPlayerJoin(PlayerJoinEvent event) throws EssentialsCommandException {
-		ColourHandler.sendMessage(event.getPlayer(), "&6You have %d unread mail messages!", countNumberUnread(event.getPlayer()));
+		// count our unread mail without holding up the join
+		DatabaseManager.accessQueryAsync(new CommandSenderCallback<ArrayList<HashMap<String, Object>>>(event.getPlayer()) {
+			@Override
+			public void onResult(ArrayList<HashMap<String, Object>> results) throws EssentialsCommandException {
+				ColourHandler.sendMessage(sender, "&6You have %d unread mail messages!", results.size());
+			}
+		}, "select id from mail where recipient=? and unread=?;",
+				event.getPlayer().getName(), 1);
 	}
 	
 	@Command(command = "mail",
@@ -76,42 +138,39 @@ public class Mail implements Listener, MultilineChatHandler {
 			permissions = {"read"},
 			playerOnly = true)
 	public static boolean checkMail(CommandSender sender, int page) throws EssentialsCommandException {
-		// get our mail
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery(
-				"select * from mail where recipient=? order by date desc;",
-				sender.getName());
-		
-		// calculate the number of pages
-		int totalPages = results.size() / MESSAGES_PER_PAGE;
-		if(results.size() % 5 != 0) totalPages++;
-		
 		// make sure we have an appropriate page
-		page -= 1;
-		if(page < 0) {
+		final int pageIndex = page - 1;
+		if(pageIndex < 0) {
 			throw new EssentialsCommandException("Can't list negative pages!");
 		}
-		else if(page >= totalPages) {
-			throw new EssentialsCommandException("There are only %d pages available!", totalPages);
-		}
-		
-		// calculate the start and end warp indices
-		int start = page * MESSAGES_PER_PAGE;
-		int end = start + MESSAGES_PER_PAGE;
-		if(end > results.size()) {
-			end = results.size();
-		}
 		
-		// show our mail
-		ColourHandler.sendMessage(sender, "&6%s's Inbox (page %d/%d):", sender.getName(), (page+1), totalPages);
-		for(int i = start; i < end; i++) {
-			ColourHandler.sendMessage(sender,
-					"&7[%d]&f%s &9%s&7: &f%s &7(%s)",
-					(Integer)results.get(i).get("id"),
-					(Boolean)results.get(i).get("unread") ? "*" : "",
-					(String)results.get(i).get("sender"),
-					(String)results.get(i).get("subject"),
-					((Timestamp)results.get(i).get("date")).toString());
-		}
+		// get just the page of mail we want
+		DatabaseManager.pageQueryAsync(new CommandSenderCallback<Page<MailEntry>>(sender) {
+			@Override
+			public void onResult(Page<MailEntry> page) throws EssentialsCommandException {
+				// make sure our page exists
+				int totalPages = page.getTotalPages();
+				if(pageIndex >= totalPages) {
+					throw new EssentialsCommandException("There are only %d pages available!", totalPages);
+				}
+				
+				// show our mail
+				ColourHandler.sendMessage(sender, "&6%s's Inbox (page %d/%d):", sender.getName(), (pageIndex+1), totalPages);
+				for(MailEntry mail: page.getRows()) {
+					ColourHandler.sendMessage(sender,
+							"&7[%d]&f%s &9%s&7: &f%s &7(%s)",
+							mail.id,
+							mail.unread ? "*" : "",
+							mail.sender,
+							mail.subject,
+							mail.date.toString());
+				}
+			}
+		}, MailEntry.SUMMARY_MAPPER,
+				"select count(*) from mail where recipient=?;",
+				"select id, sender, date, subject, unread from mail where recipient=? order by date desc, id desc;",
+				pageIndex, MESSAGES_PER_PAGE,
+				sender.getName());
 		
 		return true;
 	}
@@ -120,10 +179,11 @@ public class Mail implements Listener, MultilineChatHandler {
 			arguments = {"mail ID"},
 			description = "reads the mail message with the given ID",
 			permissions = {"read"},
-			playerOnly = true)
+			playerOnly = true,
+			async = true)
 	public static boolean readMail(CommandSender sender, int mailID) throws EssentialsCommandException {
 		// get our mail
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery(
+		ArrayList<MailEntry> results = DatabaseManager.accessQuery(MailEntry.MAPPER,
 				"select * from mail where recipient=? and id=?;",
 				sender.getName(), mailID);
 		
@@ -133,11 +193,9 @@ public class Mail implements Listener, MultilineChatHandler {
 		}
 		
 		// ok, read it
-		String mailSender = (String)results.get(0).get("sender");
-		String subject = (String)results.get(0).get("subject");
-		String contents = ColourHandler.processColours((String)results.get(0).get("contents"));
-		Timestamp date = (Timestamp)results.get(0).get("date");
-		ColourHandler.sendMessage(sender, "&9Mail from %s: %s (on %s):", mailSender, subject, date.toString());
+		MailEntry mail = results.get(0);
+		String contents = ColourHandler.processColours(mail.contents);
+		ColourHandler.sendMessage(sender, "&9Mail from %s: %s (on %s):", mail.sender, mail.subject, mail.date.toString());
 		String[] lines = ChatPaginator.wordWrap(contents, ChatPaginator.AVERAGE_CHAT_PAGE_WIDTH);
 		for(String line: lines) {
 			ColourHandler.sendMessage(sender, line);
@@ -146,7 +204,7 @@ public class Mail implements Listener, MultilineChatHandler {
 		// now mark it as read
 		int updateResults = DatabaseManager.updateQuery(
 				"update mail set unread=? where id=?;",
-				false, (Integer)results.get(0).get("id"));
+				false, mail.id);
 		
 		// make sure it worked!
 		if(updateResults == 0) {
@@ -175,7 +233,7 @@ public class Mail implements Listener, MultilineChatHandler {
 		
 		return true;
 	}
-
+	
 	@Override
 	public void onChatComplete(Player player, String contents, Object... args) throws EssentialsCommandException {
 		// get our arguments back
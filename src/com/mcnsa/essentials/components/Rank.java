@@ -19,7 +19,7 @@ import com.mcnsa.essentials.annotations.DatabaseTableInfo;
 import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
 import com.mcnsa.essentials.interfaces.MultilineChatHandler;
-import com.mcnsa.essentials.managers.DatabaseManager;
+import com.mcnsa.essentials.managers.AuditLogManager;
 import com.mcnsa.essentials.managers.PermissionsManager;
 import com.mcnsa.essentials.utilities.ColourHandler;
 import com.mcnsa.essentials.utilities.MultilineChatEntry;
@@ -50,7 +50,7 @@ public class Rank implements MultilineChatHandler {
 	}
 	
 	private static void logRankChange(Player target, CommandSender source, PermissionGroup oldGroup, PermissionGroup newGroup, Timestamp timestamp, String reason) throws EssentialsCommandException {
-		int results = DatabaseManager.updateQuery(
+		AuditLogManager.log(
 				"insert into ranks (id, targetPlayer, sourcePlayer, oldGroup, newGroup, date, reason) values (NULL, ?, ?, ?, ?, ?, ?);",
 				target.getName(),
 				source.getName(),
@@ -58,11 +58,6 @@ public class Rank implements MultilineChatHandler {
 				newGroup.getName(),
 				timestamp,
 				reason);
-		
-		// make sure it worked!
-		if(results == 0) {
-			throw new EssentialsCommandException("Failed to log promotion!");
-		}
 	}
 	
 	private static void promote(CommandSender promoter, Player targetPlayer, String reason) throws EssentialsCommandException {
@@ -79,6 +74,9 @@ public class Rank implements MultilineChatHandler {
 			throw new EssentialsCommandException("%s isn't promoteable by you!", targetPlayer.getName());
 		}
 		
+		// their permissions have changed
+		PermissionsManager.invalidate(targetPlayer.getName());
+		
 		// and log it
 		logRankChange(targetPlayer, promoter, oldGroup, newGroup, new Timestamp(System.currentTimeMillis()), reason);
 		ColourHandler.sendMessage(promoter, "&a%s has been promoted to rank '%s'!", targetPlayer.getName(), newGroup.getName());
@@ -99,6 +97,9 @@ public class Rank implements MultilineChatHandler {
 			throw new EssentialsCommandException("%s isn't demotable by you!", targetPlayer.getName());
 		}
 		
+		// their permissions have changed
+		PermissionsManager.invalidate(targetPlayer.getName());
+		
 		// and log it
 		logRankChange(targetPlayer, demoter, oldGroup, newGroup, new Timestamp(System.currentTimeMillis()), reason);
 		ColourHandler.sendMessage(demoter, "&a%s has been demoted to rank '%s'!", targetPlayer.getName(), newGroup.getName());
@@ -121,6 +122,9 @@ public class Rank implements MultilineChatHandler {
 		PermissionGroup[] newGroups = {newGroup};
 		permissionsManager.getUser(targetPlayer).setGroups(newGroups);
 		
+		// their permissions have changed
+		PermissionsManager.invalidate(targetPlayer.getName());
+		
 		// and log it
 		logRankChange(targetPlayer, hotdogger, oldGroup, newGroup, new Timestamp(System.currentTimeMillis()), reason);
 		ColourHandler.sendMessage(hotdogger, "&a%s has been hotdogged!", newGroup.getName());
@@ -322,7 +326,7 @@ public class Rank implements MultilineChatHandler {
 		
 		return true;
 	}
-
+	
 	@Override
 	public void onChatComplete(Player player, String enteredText, Object... args) throws EssentialsCommandException {
 		RankAction action = (RankAction)args[1];
@@ -1,7 +1,8 @@
 package com.mcnsa.essentials.components;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -13,74 +14,127 @@ import com.mcnsa.essentials.annotations.ComponentInfo;
 import com.mcnsa.essentials.annotations.DatabaseTableInfo;
 import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.interfaces.RowMapper;
+import com.mcnsa.essentials.interfaces.UnitOfWork;
 import com.mcnsa.essentials.managers.DatabaseManager;
 import com.mcnsa.essentials.managers.PermissionsManager;
 import com.mcnsa.essentials.utilities.ColourHandler;
+import com.mcnsa.essentials.utilities.CommandSenderCallback;
+import com.mcnsa.essentials.utilities.Page;
+import com.mcnsa.essentials.utilities.Transaction;
 
 @ComponentInfo(friendlyName = "Warp",
 				description = "Lets players warp around",
 				permsSettingsPrefix = "warp")
 @DatabaseTableInfo(name = "warps",
-					fields = { "owner TINYTEXT", "name TINYTEXT", "world TINYTEXT", "x FLOAT", "y FLOAT", "z FLOAT", "yaw FLOAT", "pitch FLOAT", "public BOOL" })
+					fields = { "owner TINYTEXT", "name TINYTEXT", "world TINYTEXT", "x FLOAT", "y FLOAT", "z FLOAT", "yaw FLOAT", "pitch FLOAT", "public BOOL" },
+					indexes = { "name(32)", "public, name(32)" },
+					uniqueIndexes = { "owner(16), name(32)" },
+					migrations = {
+						// rename clashing warps the same way as homes, ie "spawn" becomes "spawn~7"
+						"update warps set name = replace(replace('{name}~{id}', '{id}', id), '{name}', substr(name, 1, 31 - length(id))) "
+							+ "where id not in (select id from (select max(id) as id from warps group by lower(substr(owner, 1, 16)), lower(substr(name, 1, 32))) newest);"
+					})
 public class Warp {
 	@Setting(node = "max-private-warps") public static int maxPrivateWarps = 5;
 	@Setting(node = "warps-per-page") public static int warpsPerPage = 5;
 	
+	// as much of a name as our unique index looks at
+	private static final int MAX_NAME_LENGTH = 32;
+	
+	// a single row of our warps table
+	public static class WarpEntry {
+		public static final RowMapper<WarpEntry> MAPPER = new RowMapper<WarpEntry>() {
+			private final String[] columns = {"id", "owner", "name", "world", "x", "y", "z", "yaw", "pitch", "public"};
+			
+			@Override
+			public String[] getColumns() {
+				return columns;
+			}
+			
+			@Override
+			public WarpEntry mapRow(ResultSet results, int[] columns) throws SQLException {
+				WarpEntry entry = new WarpEntry();
+				entry.id = results.getInt(columns[0]);
+				entry.owner = results.getString(columns[1]);
+				entry.name = results.getString(columns[2]);
+				entry.world = results.getString(columns[3]);
+				entry.x = results.getFloat(columns[4]);
+				entry.y = results.getFloat(columns[5]);
+				entry.z = results.getFloat(columns[6]);
+				entry.yaw = results.getFloat(columns[7]);
+				entry.pitch = results.getFloat(columns[8]);
+				entry.isPublic = results.getBoolean(columns[9]);
+				return entry;
+			}
+		};
+		
+		public int id;
+		public String owner;
+		public String name;
+		public String world;
+		public float x, y, z;
+		public float yaw, pitch;
+		public boolean isPublic;
+		
+		public Location getLocation() {
+			return new Location(Bukkit.getServer().getWorld(world), x, y, z, yaw, pitch);
+		}
+	}
+	
 	@Command(command = "warps",
 			description = "lists warps available to you",
 			permissions = {"list"})
 	public static boolean warps(CommandSender sender) throws EssentialsCommandException {
 		return warps(sender, 1);
 	}
-
+	
 	@Command(command = "warps",
 			arguments = {"page"},
 			description = "lists warps available to you on a given page",
 			permissions = {"list"})
 	public static boolean warps(CommandSender sender, int page) throws EssentialsCommandException {
-		// get a resultset of all our warps
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery(
-				"select * from warps where public=? or owner=? order by name asc;",
-				true,
-				sender.getName());
-		if(results.size() == 0) {
-			ColourHandler.sendMessage(sender, "&eThere aren't want warps available!");
-			return true;
-		}
-		
-		// calculate the number of pages
-		int totalPages = results.size() / warpsPerPage;
-		if(results.size() % 5 != 0) totalPages++;
-		
 		// make sure we have an appropriate page
-		page -= 1;
-		if(page < 0) {
+		final int pageIndex = page - 1;
+		if(pageIndex < 0) {
 			throw new EssentialsCommandException("Can't list negative pages!");
 		}
-		else if(page >= totalPages) {
-			throw new EssentialsCommandException("There are only %d pages available!", totalPages);
-		}
 		
-		// calculate the start and end warp indices
-		int start = page * warpsPerPage;
-		int end = start + warpsPerPage;
-		if(end > results.size()) {
-			end = results.size();
-		}
-		
-		// list this page of the warps
-		ColourHandler.sendMessage(sender, "&6Available warps (page %d/%d):", (page+1), totalPages);
-		for(int i = start; i < end; i++) {
-			ColourHandler.sendMessage(sender,
-					"  &e%s &6[%s&6] &f%s&6(&f%d&6, &f%d&6, &f%d&6)",
-					(String)results.get(i).get("name"),
-					((Boolean)results.get(i).get("public") ? "&aPUBLIC" : "&cPRIVATE"),
-					(String)results.get(i).get("world"),
-					((Float)results.get(i).get("x")).intValue(),
-					((Float)results.get(i).get("y")).intValue(),
-					((Float)results.get(i).get("z")).intValue()
-					);
-		}
+		// get just the page of warps we want
+		DatabaseManager.pageQueryAsync(new CommandSenderCallback<Page<WarpEntry>>(sender) {
+			@Override
+			public void onResult(Page<WarpEntry> page) throws EssentialsCommandException {
+				if(page.getTotalRows() == 0) {
+					ColourHandler.sendMessage(sender, "&eThere aren't want warps available!");
+					return;
+				}
+				
+				// make sure our page exists
+				int totalPages = page.getTotalPages();
+				if(pageIndex >= totalPages) {
+					throw new EssentialsCommandException("There are only %d pages available!", totalPages);
+				}
+				
+				// list this page of the warps
+				ColourHandler.sendMessage(sender, "&6Available warps (page %d/%d):", (pageIndex+1), totalPages);
+				for(WarpEntry warp: page.getRows()) {
+					ColourHandler.sendMessage(sender,
+							"  &e%s &6[%s&6] &f%s&6(&f%d&6, &f%d&6, &f%d&6)",
+							warp.name,
+							(warp.isPublic ? "&aPUBLIC" : "&cPRIVATE"),
+							warp.world,
+							(int)warp.x,
+							(int)warp.y,
+							(int)warp.z
+							);
+				}
+			}
+		}, WarpEntry.MAPPER,
+				"select count(*) from warps where public=? or owner=?;",
+				"select * from warps where public=? or owner=? order by name asc, id asc;",
+				pageIndex, warpsPerPage,
+				true,
+				sender.getName());
 		
 		return true;
 	}
@@ -100,7 +154,7 @@ public class Warp {
 				player.getLocation().getBlockY(),
 				player.getLocation().getBlockZ());
 	}
-		
+	
 	@Command(command = "setwarp",
 			arguments = {"name", "public/private"},
 			description = "sets a warp",
@@ -113,6 +167,11 @@ public class Warp {
 			pitch = ((Player)sender).getLocation().getPitch();
 		}
 		
+		// longer names would clash with each other
+		if(warpName.length() > MAX_NAME_LENGTH) {
+			throw new EssentialsCommandException("Warp names can't be longer than %d characters!", MAX_NAME_LENGTH);
+		}
+		
 		// sort out the privacy
 		boolean isPublic = false;
 		if(privacy.equalsIgnoreCase("public")) {
@@ -133,66 +192,68 @@ public class Warp {
 			throw new EssentialsCommandException("'%s' isn't a valid privacy option!", privacy);
 		}
 		
-		// first, determine if our warp already exists
-		// and count home many warps we have
-		ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery("select * from warps where owner=?;",
-				sender.getName());
-		boolean exists = false;
-		int resultIndex = 0;
-		for(resultIndex = 0; resultIndex < results.size(); resultIndex++) {
-			if(((String)results.get(resultIndex).get("name")).equals(warpName)) {
-				exists = true;
-				break;
-			}
-		}
-		
-		if(exists) {
-			// update the old warp
-			int insertionResults = DatabaseManager.updateQuery(
-					"update warps set world=?, x=?, y=?, z=?, yaw=?, pitch=?, public=? where id=?;",
-					worldName,
-					x, y, z,
-					yaw, pitch,
-					isPublic,
-					results.get(resultIndex).get("id"));
-			
-			// make sure it worked!
-			if(insertionResults == 0) {
-				throw new EssentialsCommandException("Failed to update the warp!");
-			}
-			
-			ColourHandler.sendMessage(sender, "&aWarp '%s' has been updated!", warpName);
-		}
-		else {
-			// only test for private warps
-			if(results.size() > 0 && !isPublic) {
+		// count our warps and set this one in a single transaction,
+		// so two at once can't sneak past our limit
+		final String owner = sender.getName();
+		final String name = warpName;
+		// the columns after the owner, in order
+		final Object[] values = {warpName, worldName, x, y, z, yaw, pitch, isPublic};
+		final boolean makePublic = isPublic;
+		boolean updated = DatabaseManager.transaction(new UnitOfWork<Boolean>() {
+			@Override
+			public Boolean execute(Transaction transaction) throws EssentialsCommandException {
+				// first, determine if our warp already exists
+				// and count how many private warps we have
+				// (ignoring case, like mysql and our unique index do)
+				ArrayList<WarpEntry> results = transaction.accessQueryForUpdate(WarpEntry.MAPPER, "select * from warps where owner=?;", owner);
+				WarpEntry existing = null;
+				int privateWarps = 0;
+				for(WarpEntry warp: results) {
+					if(existing == null && warp.name.equalsIgnoreCase(name)) {
+						existing = warp;
+					}
+					if(!warp.isPublic) {
+						privateWarps++;
+					}
+				}
+				
 				// make sure we aren't going over our limit
-				// count the number of private warps
-				results = DatabaseManager.accessQuery("select id from warps where owner=? and public=?",
-						sender.getName(), false);
-				if(results.size() >= maxPrivateWarps) {
+				// (only for new private warps)
+				if(existing == null && !makePublic && privateWarps >= maxPrivateWarps) {
 					throw new EssentialsCommandException("You have too many private warps! (Maximum is %d)",
 							maxPrivateWarps);
 				}
+				
+				// ok, set it
+				Object[] args = new Object[values.length + 1];
+				int insertionResults = 0;
+				if(existing != null) {
+					System.arraycopy(values, 0, args, 0, values.length);
+					args[values.length] = existing.id;
+					insertionResults = transaction.updateQuery(
+							"update warps set name=?, world=?, x=?, y=?, z=?, yaw=?, pitch=?, public=? where id=?;",
+							args);
+				}
+				else {
+					args[0] = owner;
+					System.arraycopy(values, 0, args, 1, values.length);
+					insertionResults = transaction.updateQuery(
+							"insert into warps (id, owner, name, world, x, y, z, yaw, pitch, public) values (NULL, ?, ?, ?, ?, ?, ?, ?, ?, ?);",
+							args);
+				}
+				
+				// make sure it worked!
+				if(insertionResults == 0) {
+					throw new EssentialsCommandException(existing != null ? "Failed to update the warp!" : "Failed to add your warp!");
+				}
+				return existing != null;
 			}
-			
-			// ok, insert it
-			
-			// set our warp
-			int insertionResults = DatabaseManager.updateQuery(
-					"insert into warps (id, owner, name, world, x, y, z, yaw, pitch, public) values (NULL, ?, ?, ?, ?, ?, ?, ?, ?, ?);",
-					sender.getName(),
-					warpName,
-					worldName,
-					x, y, z,
-					yaw, pitch,
-					isPublic);
-			
-			// make sure it worked!
-			if(insertionResults == 0) {
-				throw new EssentialsCommandException("Failed to add your warp!");
-			}
-			
+		});
+		
+		if(updated) {
+			ColourHandler.sendMessage(sender, "&aWarp '%s' has been updated!", warpName);
+		}
+		else {
 			ColourHandler.sendMessage(sender, "&aWarp '%s' has been added!", warpName);
 		}
 		
@@ -206,9 +267,9 @@ public class Warp {
 	public static boolean deleteWarp(CommandSender sender, String warpName) throws EssentialsCommandException {		
 		// try to get that warp
 		// get a resultset of all our warps
-		ArrayList<HashMap<String, Object>> results = null;
+		ArrayList<WarpEntry> results = null;
 		if(!PermissionsManager.playerHasPermission(sender, "warp.delete.any")) {
-			results = DatabaseManager.accessQuery(
+			results = DatabaseManager.accessQuery(WarpEntry.MAPPER,
 					"select * from warps where name=? and (public=? or owner=?) limit 1;",
 					warpName,
 					true,
@@ -218,7 +279,7 @@ public class Warp {
 			}
 		}
 		else {
-			results = DatabaseManager.accessQuery(
+			results = DatabaseManager.accessQuery(WarpEntry.MAPPER,
 					"select * from warps where name=? limit 1;",
 					warpName);
 			if(results.size() == 0) {
@@ -232,12 +293,9 @@ public class Warp {
 		}
 		
 		// ok, we have it
-		// build a location
-		HashMap<String, Object> result = results.get(0);
-		
 		// delete it!
 		int numRowsDeleted = DatabaseManager.updateQuery("delete from warps where id=?",
-				result.get("id"));
+				results.get(0).id);
 		if(numRowsDeleted == 0) {
 			throw new EssentialsCommandException("Failed to delete the warp! Please contact an administrator!");
 		}
@@ -257,9 +315,9 @@ public class Warp {
 		
 		// try to get that warp
 		// get a resultset of all our warps
-		ArrayList<HashMap<String, Object>> results = null;
+		ArrayList<WarpEntry> results = null;
 		if(!PermissionsManager.playerHasPermission(sender, "warp.warp.any")) {
-			results = DatabaseManager.accessQuery(
+			results = DatabaseManager.accessQuery(WarpEntry.MAPPER,
 					"select * from warps where name=? and (public=? or owner=?) limit 1;",
 					warpName,
 					true,
@@ -269,7 +327,7 @@ public class Warp {
 			}
 		}
 		else {
-			results = DatabaseManager.accessQuery(
+			results = DatabaseManager.accessQuery(WarpEntry.MAPPER,
 					"select * from warps where name=? limit 1;",
 					warpName);
 			if(results.size() == 0) {
@@ -284,14 +342,7 @@ public class Warp {
 		
 		// ok, we have it
 		// build a location
-		HashMap<String, Object> result = results.get(0);
-		Location location = new Location(
-				Bukkit.getServer().getWorld((String)result.get("world")),
-				(Float)result.get("x"),
-				(Float)result.get("y"),
-				(Float)result.get("z"),
-				(Float)result.get("yaw"),
-				(Float)result.get("pitch"));
+		Location location = results.get(0).getLocation();
 		
 		// teleport them!
 		player.teleport(location);
@@ -0,0 +1,9 @@
+package com.mcnsa.essentials.interfaces;
+
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+
+public interface ArgumentBinder {
+	// turn the command's arguments, starting at index, into a single method argument
+	// return null if they don't fit, or throw to say why they don't
+	public Object bind(String[] args, int index) throws EssentialsCommandException;
+}
@@ -0,0 +1,7 @@
+package com.mcnsa.essentials.interfaces;
+
+public interface CommandInvoker {
+	// call the command's method with its (already bound) arguments, sender first
+	// anything the method throws comes straight out, unwrapped
+	public boolean invoke(Object[] arguments) throws Exception;
+}
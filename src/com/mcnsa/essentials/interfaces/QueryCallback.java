@@ -0,0 +1,8 @@
+package com.mcnsa.essentials.interfaces;
+
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+
+public interface QueryCallback<T> {
+	public void onResult(T result) throws EssentialsCommandException;
+	public void onFailure(EssentialsCommandException e);
+}
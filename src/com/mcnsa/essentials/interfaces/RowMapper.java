@@ -0,0 +1,12 @@
+package com.mcnsa.essentials.interfaces;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public interface RowMapper<T> {
+	// the columns we read, looked up once per query
+	public String[] getColumns();
+	// build a record from the current row
+	// (column getColumns()[i] lives at index columns[i] in the result set)
+	public T mapRow(ResultSet results, int[] columns) throws SQLException;
+}
@@ -0,0 +1,9 @@
+package com.mcnsa.essentials.interfaces;
+
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+
+public interface RowVisitor<T> {
+	// called once for every row as it is read
+	// return false to stop reading any more rows
+	public boolean visit(T row) throws EssentialsCommandException;
+}
@@ -0,0 +1,11 @@
+package com.mcnsa.essentials.interfaces;
+
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.utilities.Transaction;
+
+public interface UnitOfWork<T> {
+	// run all of your statements through the transaction,
+	// they get committed together once this returns
+	// throw to roll them all back
+	public T execute(Transaction transaction) throws EssentialsCommandException;
+}
@@ -0,0 +1,203 @@
+package com.mcnsa.essentials.managers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.mcnsa.essentials.MCNSAEssentials;
+import com.mcnsa.essentials.annotations.Setting;
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.runnables.AuditLogFlushTask;
+import com.mcnsa.essentials.utilities.Logger;
+
+// queues up audit log inserts (bans, kicks, rank changes) and writes
+// them to the database in batches from a background thread
+public class AuditLogManager {
+	@Setting(node = "database.audit.queue-size") public static int queueSize = 1000;
+	@Setting(node = "database.audit.batch-size") public static int batchSize = 100;
+	@Setting(node = "database.audit.flush-interval-ticks") public static int flushInterval = 40;
+	@Setting(node = "database.audit.max-retries") public static int maxRetries = 3;
+	
+	// a single row waiting to be written
+	private static class AuditRow {
+		public String query = null;
+		public Object[] args = null;
+		public int attempts = 0;
+		
+		public AuditRow(String query, Object[] args) {
+			this.query = query;
+			this.args = args;
+		}
+	}
+	
+	// our pending rows
+	private static LinkedBlockingQueue<AuditRow> queue = null;
+	private static BukkitTask flushTask = null;
+	
+	// keep track of how we're doing
+	private static AtomicLong queuedCount = new AtomicLong(0);
+	private static AtomicLong writtenCount = new AtomicLong(0);
+	private static AtomicLong retriedCount = new AtomicLong(0);
+	private static AtomicLong droppedCount = new AtomicLong(0);
+	private static AtomicLong batchCount = new AtomicLong(0);
+	
+	public void enable() {
+		queue = new LinkedBlockingQueue<AuditRow>(Math.max(1, queueSize));
+		
+		// start flushing
+		long period = Math.max(1, flushInterval);
+		flushTask = Bukkit.getServer().getScheduler().runTaskTimerAsynchronously(
+				MCNSAEssentials.getInstance(), new AuditLogFlushTask(), period, period);
+	}
+	
+	public void disable() {
+		if(flushTask != null) {
+			flushTask.cancel();
+			flushTask = null;
+		}
+		
+		// write out everything we have left
+		if(queue != null) {
+			while(!queue.isEmpty()) {
+				if(!flush()) {
+					Logger.error("Failed to write %d audit log rows on shutdown!", queue.size());
+					droppedCount.addAndGet(queue.size());
+					queue.clear();
+				}
+			}
+		}
+	}
+	
+	// queue up an insert to be written in the background
+	public static boolean log(String query, Object... args) {
+		if(queue == null || !queue.offer(new AuditRow(query, args))) {
+			droppedCount.incrementAndGet();
+			Logger.warning("Audit log queue is full, dropping log entry!");
+			return false;
+		}
+		
+		queuedCount.incrementAndGet();
+		return true;
+	}
+	
+	// queue up a bunch of rows for the same insert and write them out right away,
+	// so they end up in a single batch
+	// returns how many of the rows were queued (the rest were dropped)
+	public static int logAll(String query, List<Object[]> rows) {
+		int queued = 0;
+		for(Object[] args: rows) {
+			if(queue == null || !queue.offer(new AuditRow(query, args))) {
+				break;
+			}
+			queued++;
+		}
+		queuedCount.addAndGet(queued);
+		
+		if(queued < rows.size()) {
+			droppedCount.addAndGet(rows.size() - queued);
+			Logger.warning("Audit log queue is full, dropping %d log entries!", rows.size() - queued);
+		}
+		
+		// don't wait for the next flush
+		if(queued > 0) {
+			Bukkit.getServer().getScheduler().runTaskAsynchronously(MCNSAEssentials.getInstance(), new AuditLogFlushTask());
+		}
+		return queued;
+	}
+	
+	// write out (up to) one batch worth of rows per query
+	// returns false if any of the batches failed
+	public static synchronized boolean flush() {
+		if(queue == null || queue.isEmpty()) {
+			return true;
+		}
+		
+		// hang on to everything while the database is down
+		if(!DatabaseManager.isAvailable()) {
+			return false;
+		}
+		
+		// grab our rows
+		ArrayList<AuditRow> rows = new ArrayList<AuditRow>();
+		queue.drainTo(rows, Math.max(1, batchSize));
+		
+		// group them by query so each query is a single batch
+		LinkedHashMap<String, ArrayList<AuditRow>> batches = new LinkedHashMap<String, ArrayList<AuditRow>>();
+		for(AuditRow row: rows) {
+			if(!batches.containsKey(row.query)) {
+				batches.put(row.query, new ArrayList<AuditRow>());
+			}
+			batches.get(row.query).add(row);
+		}
+		
+		boolean success = true;
+		for(String query: batches.keySet()) {
+			List<AuditRow> batch = batches.get(query);
+			ArrayList<Object[]> batchArgs = new ArrayList<Object[]>(batch.size());
+			for(AuditRow row: batch) {
+				batchArgs.add(row.args);
+			}
+			
+			try {
+				DatabaseManager.batchQuery(query, batchArgs);
+				writtenCount.addAndGet(batch.size());
+				batchCount.incrementAndGet();
+			}
+			catch(EssentialsCommandException e) {
+				success = false;
+				Logger.warning("Failed to write %d audit log rows: %s", batch.size(), e.getMessage());
+				requeue(batch);
+			}
+		}
+		
+		return success;
+	}
+	
+	private static void requeue(List<AuditRow> rows) {
+		int dropped = 0;
+		for(AuditRow row: rows) {
+			row.attempts++;
+			if(row.attempts <= maxRetries && queue.offer(row)) {
+				retriedCount.incrementAndGet();
+			}
+			else {
+				dropped++;
+			}
+		}
+		
+		if(dropped > 0) {
+			droppedCount.addAndGet(dropped);
+			Logger.error("Dropped %d audit log rows!", dropped);
+		}
+	}
+	
+	// statistics
+	public static int getPendingCount() {
+		return queue == null ? 0 : queue.size();
+	}
+	
+	public static long getQueuedCount() {
+		return queuedCount.get();
+	}
+	
+	public static long getWrittenCount() {
+		return writtenCount.get();
+	}
+	
+	public static long getRetriedCount() {
+		return retriedCount.get();
+	}
+	
+	public static long getDroppedCount() {
+		return droppedCount.get();
+	}
+	
+	public static long getBatchCount() {
+		return batchCount.get();
+	}
+}
@@ -1,29 +1,66 @@
 package com.mcnsa.essentials.managers;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandMap;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
 
+import com.mcnsa.essentials.MCNSAEssentials;
 import com.mcnsa.essentials.annotations.Command;
+import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.interfaces.ArgumentBinder;
+import com.mcnsa.essentials.interfaces.CommandInvoker;
 import com.mcnsa.essentials.managers.ComponentManager.Component;
+import com.mcnsa.essentials.runnables.CommandStatsDumpTask;
+import com.mcnsa.essentials.utilities.ArgumentResolvers;
 import com.mcnsa.essentials.utilities.ColourHandler;
+import com.mcnsa.essentials.utilities.CommandInvokers;
+import com.mcnsa.essentials.utilities.CommandStatistics;
+import com.mcnsa.essentials.utilities.CommandStatistics.CommandStats;
 import com.mcnsa.essentials.utilities.Logger;
 
 public class CommandsManager implements CommandExecutor {
+	@Setting(node = "commands.async-threads") public static int asyncThreads = 2;
+	// how many asynchronous commands each player can have running at once
+	@Setting(node = "commands.max-in-flight") public static int maxInFlight = 2;
+	// anything that takes longer than this gets counted as slow (a tick is 50ms)
+	@Setting(node = "commands.stats.slow-millis") public static int slowMillis = 50;
+	// how often to write our statistics out to a file (0 to never)
+	@Setting(node = "commands.stats.dump-interval-minutes") public static int dumpInterval = 10;
+	@Setting(node = "commands.stats.dump-file") public static String dumpFile = "command-stats.txt";
+	
 	// keep track of all known aliases we're using
 	private HashSet<String> knownAliases = new HashSet<String>();
 	
+	// where our asynchronous commands run
+	private ExecutorService executor = null;
+	// how many asynchronous commands each sender has running, by name
+	private ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+	
+	// keep track of how our commands are doing
+	private static CommandStatistics statistics = new CommandStatistics();
+	private BukkitTask dumpTask = null;
+	
 	// an ``internal'' command structure class to inject into the commandmap with
 	public class EssentialsCommand extends org.bukkit.command.Command {
 		// keep track of our command executor
@@ -33,7 +70,7 @@ public class CommandsManager implements CommandExecutor {
 		protected EssentialsCommand(String name) {
 			super(name);
 		}
-
+		
 		@Override
 		public boolean execute(CommandSender sender, String commandLabel, String[] args) {
 			if(commandExecutor != null) {
@@ -42,7 +79,7 @@ public class CommandsManager implements CommandExecutor {
 			}
 			return false;
 		}
-
+		
 		public void setExecutor(CommandExecutor commandExecutor) {
 			this.commandExecutor = commandExecutor;
 		}
@@ -53,11 +90,92 @@ public class CommandsManager implements CommandExecutor {
 		public Command command = null;
 		public Method method = null;
 		public ArrayList<String> permissions = null;
+		// worked out once when we register, instead of every time the command runs
+		public ArgumentBinder[] binders = null;
+		public boolean variadic = false;
+		public String[] permissionNodes = null;
+		public CommandStats stats = null;
+		public CommandInvoker invoker = null;
+		
+		// turn the arguments we were given into the method's arguments
+		// returns null if they don't fit this method
+		public Object[] bind(CommandSender sender, String[] args, BindingCache cache) throws EssentialsCommandException {
+			// don't bother if there aren't enough of them
+			if(args.length < (variadic ? binders.length - 1 : binders.length)) {
+				return null;
+			}
+			
+			Object[] arguments = new Object[binders.length + 1];
+			arguments[0] = sender;
+			for(int i = 0; i < binders.length; i++) {
+				Object argument = cache.bind(binders[i], i);
+				if(argument == null) {
+					return null;
+				}
+				arguments[i + 1] = argument;
+			}
+			return arguments;
+		}
 	}
 	
+	// what each binder made of each argument while handling a single command,
+	// so overloads that share a parameter type don't work it out all over again
+	private static class BindingCache {
+		// stands in for arguments that didn't fit
+		private static final Object NO_MATCH = new Object();
+		
+		private String[] args = null;
+		private HashMap<ArgumentBinder, Object[]> results = null;
+		
+		public BindingCache(String[] args) {
+			this.args = args;
+		}
+		
+		public Object bind(ArgumentBinder binder, int index) throws EssentialsCommandException {
+			if(results == null) {
+				results = new HashMap<ArgumentBinder, Object[]>();
+			}
+			Object[] bound = results.get(binder);
+			if(bound == null) {
+				bound = new Object[args.length + 1];
+				results.put(binder, bound);
+			}
+			
+			if(bound[index] == null) {
+				try {
+					Object argument = binder.bind(args, index);
+					bound[index] = argument == null ? NO_MATCH : argument;
+				}
+				catch(EssentialsCommandException e) {
+					bound[index] = e;
+				}
+			}
+			
+			if(bound[index] instanceof EssentialsCommandException) {
+				throw (EssentialsCommandException)bound[index];
+			}
+			return bound[index] == NO_MATCH ? null : bound[index];
+		}
+	}
+	
+	// try the overloads that take more arguments first, so that extra
+	// arguments don't get ignored by a shorter one, and the ones that
+	// soak up everything that's left last
+	private static final Comparator<CommandInfo> OVERLOAD_ORDER = new Comparator<CommandInfo>() {
+		@Override
+		public int compare(CommandInfo a, CommandInfo b) {
+			if(a.variadic != b.variadic) {
+				return a.variadic ? 1 : -1;
+			}
+			return b.binders.length - a.binders.length;
+		}
+	};
+	
 	// our registered commands and command descriptions (for help)
 	protected HashMap<String, CommandInfo> registeredCommands = new HashMap<String, CommandInfo>();
 	protected HashMap<String, String> aliasMapping = new HashMap<String, String>();
+	// every overload of each command, in the order we try them
+	protected HashMap<String, ArrayList<CommandInfo>> dispatchIndex = new HashMap<String, ArrayList<CommandInfo>>();
 	
 	// call this to load our commands
 	public void loadCommands(ComponentManager componentManager) {
@@ -112,25 +230,75 @@ public class CommandsManager implements CommandExecutor {
 			e.printStackTrace();
 			Logger.error("Failed to load components / commands!");
 		}
+		
+		// start our asynchronous command threads (now that our settings are loaded)
+		executor = Executors.newFixedThreadPool(Math.max(1, asyncThreads), new ThreadFactory() {
+			private AtomicInteger threadNumber = new AtomicInteger(1);
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "MCNSAEssentials-Commands-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		// and periodically write out our statistics
+		if(dumpInterval > 0) {
+			long period = dumpInterval * 60L * 20L;
+			dumpTask = Bukkit.getServer().getScheduler().runTaskTimerAsynchronously(
+					MCNSAEssentials.getInstance(), new CommandStatsDumpTask(), period, period);
+		}
 	}
 	
-	// utility function to ensure the function we're trying to load
-	// only has basic parameter types
-	private Boolean validParameterType(Class<?> type) {
-		if(type == int.class) {
-			return true;
+	public void disable() {
+		if(dumpTask != null) {
+			dumpTask.cancel();
+			dumpTask = null;
 		}
-		else if(type == float.class) {
-			return true;
+		
+		// let any outstanding commands finish up
+		if(executor != null) {
+			executor.shutdown();
+			try {
+				if(!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+					Logger.warning("Timed out waiting for asynchronous commands to finish!");
+					executor.shutdownNow();
+				}
+			}
+			catch(InterruptedException e) {
+				executor.shutdownNow();
+			}
+			executor = null;
 		}
-		else if(type == String.class) {
-			return true;
+		
+		// our delivery task won't get to run any more
+		ColourHandler.deliverPendingMessages();
+		
+		// one last time, so we don't lose what's happened since the last dump
+		if(dumpInterval > 0) {
+			dumpStatistics();
 		}
-		else if(type == String[].class) {
-			return true;
+	}
+	
+	public static CommandStatistics getStatistics() {
+		return statistics;
+	}
+	
+	public static void dumpStatistics() {
+		File file = new File(MCNSAEssentials.getInstance().getDataFolder(), dumpFile);
+		try {
+			statistics.writeReport(file);
 		}
-		
-		return false;
+		catch(Exception e) {
+			Logger.error("Failed to write command statistics to %s (%s)!", file.getPath(), e.getMessage());
+		}
+	}
+	
+	// utility function to ensure the function we're trying to load
+	// only has basic parameter types
+	private Boolean validParameterType(Class<?> type) {
+		return ArgumentResolvers.isSupported(type);
 	}
 	
 	// create a custom command registration string that makes each one unique
@@ -151,18 +319,7 @@ public class CommandsManager implements CommandExecutor {
 		// now add our arguments
 		Class<?>[] parameterTypes = ci.method.getParameterTypes();
 		for(int i = 1; i < parameterTypes.length; i++) {
-			if(parameterTypes[i] == int.class) {
-				str += ":i";
-			}
-			else if(parameterTypes[i] == float.class) {
-				str += ":f";
-			}
-			else if(parameterTypes[i] == String.class) {
-				str += ":s";
-			}
-			else if(parameterTypes[i] == String[].class) {
-				str += ":sa";
-			}
+			str += ":" + ArgumentResolvers.getCode(parameterTypes[i]);
 		}
 		
 		return str;
@@ -177,13 +334,7 @@ public class CommandsManager implements CommandExecutor {
 		}
 		
 		// no? Well maybe its the normal command then..
-		for(String registration: registeredCommands.keySet()) {
-			String[] parts = registration.split(":");
-			if(parts[0].equals(command)) {
-				return true;
-			}
-		}
-		return false;
+		return dispatchIndex.containsKey(command);
 	}
 	
 	// go through a given class and register all the commands in it
@@ -253,6 +404,12 @@ public class CommandsManager implements CommandExecutor {
 				for(int i = 0; i < permissions.length; i++) {
 					ci.permissions.add(component.componentInfo.permsSettingsPrefix() + "." + permissions[i]);
 				}
+				
+				// and the full nodes we actually check
+				ci.permissionNodes = new String[ci.permissions.size()];
+				for(int i = 0; i < ci.permissionNodes.length; i++) {
+					ci.permissionNodes[i] = PermissionsManager.getNode(ci.permissions.get(i));
+				}
 			}
 			
 			// check to see if we have a player / console only annotation
@@ -268,11 +425,31 @@ public class CommandsManager implements CommandExecutor {
 				continue;
 			}
 			
+			// work out how to fill in each of our arguments
+			ci.binders = new ArgumentBinder[parameterTypes.length - 1];
+			for(int i = 1; i < parameterTypes.length; i++) {
+				ci.binders[i - 1] = ArgumentResolvers.getBinder(parameterTypes[i]);
+			}
+			ci.variadic = parameterTypes.length > 1 && parameterTypes[parameterTypes.length - 1] == String[].class;
+			
+			// and how to call it, without going through reflection every time
+			ci.invoker = CommandInvokers.create(method);
+			
 			// build a registration string
 			String registrationString = buildRegistrationString(ci);
 			
 			// use a registration string to register it
 			registeredCommands.put(registrationString, ci);
+			ci.stats = statistics.register(registrationString, command.async());
+			
+			// and add it to the overloads for its command
+			ArrayList<CommandInfo> overloads = dispatchIndex.get(ci.command.command());
+			if(overloads == null) {
+				overloads = new ArrayList<CommandInfo>();
+				dispatchIndex.put(ci.command.command(), overloads);
+			}
+			overloads.add(ci);
+			Collections.sort(overloads, OVERLOAD_ORDER);
 			
 			// build an array of all our aliases (including the main command) for this command
 			ArrayList<String> commandAndAliases = new ArrayList<String>();
@@ -312,124 +489,42 @@ public class CommandsManager implements CommandExecutor {
 			}
 		}
 	}
-
+	
 	@Override
 	// here is where we actually handle commands
 	public boolean onCommand(CommandSender sender, org.bukkit.command.Command command, String label, String[] args) {
 		// handle aliases
-		if(aliasMapping.containsKey(label)) {
-			label = aliasMapping.get(label);
+		String aliasTarget = aliasMapping.get(label);
+		if(aliasTarget != null) {
+			label = aliasTarget;
 		}
 		
-		/*for(String registrationToken: registeredCommands.keySet()) {
-			MCNSAEssentials.debug("possible registration: " + registrationToken);
-		}*/
-		
 		// find all our possibilities
 		String lastFailMessage = "";
-		for(String registrationToken: registeredCommands.keySet()) {
-			//MCNSAEssentials.debug("testing " + registrationToken + " against command (" + label + ")");
-			String[] registrationParts = registrationToken.split(":");
-
-			if(!registrationParts[0].equals(label)) {
-				// nope!
-				//MCNSAEssentials.debug("failed " + registrationToken + ": not correct command (" + label + ")");
-				continue;
-			}
+		ArrayList<CommandInfo> overloads = dispatchIndex.get(label);
+		BindingCache cache = new BindingCache(args);
+		for(int o = 0; overloads != null && o < overloads.size(); o++) {
+			CommandInfo ci = overloads.get(o);
 			
-			// match the command sender type
-			if(registeredCommands.get(registrationToken).command.playerOnly() && !registrationParts[1].equals("p")) {
-				// nope, not this one!
-				//MCNSAEssentials.debug("failed " + registrationToken + ": player only and not a player");
-				continue;
-			} 
-			else if(registeredCommands.get(registrationToken).command.consoleOnly() && !registrationParts[1].equals("c")) {
-				// nope, not this one!
-				//MCNSAEssentials.debug("failed " + registrationToken + ": console only and not a console");
-				continue;
+			// fill in our arguments, if they fit
+			Object[] arguments = null;
+			try {
+				arguments = ci.bind(sender, args, cache);
 			}
-			
-			// ok, this one matches the name and who can execute it
-			Class<?>[] params = registeredCommands.get(registrationToken).method.getParameterTypes();
-			
-			// check the number of arguments
-			/*if((params.length - 1) != args.length) {
-				continue;
-			}*/
-			
-			// check the arguments one by one
-			Object[] arguments = new Object[params.length];
-			
-			// fill in our CommandSender
-			arguments[0] = sender;
-			
-			// skip the CommandSender
-			boolean possible = true;
-			for(int i = 1; i < params.length && possible; i++) {
-				// parse ints next
-				if(params[i].equals(int.class)) {
-					try {
-						int pi = Integer.parseInt(args[i - 1]);
-						arguments[i] = pi;
-					}
-					catch(Exception e) {
-						// we didn't supply an int..
-						possible = false;
-					}
-				}
-				// floats next
-				else if(params[i].equals(float.class)) {
-					try {
-						float pi = Float.parseFloat(args[i - 1]);
-						arguments[i] = pi;
-					}
-					catch(Exception e) {
-						// we didn't supply an int..
-						possible = false;
-					}
-				}
-				// strings now
-				else if(params[i].equals(String.class)) {
-					try {
-						arguments[i] = args[i - 1];
-					}
-					catch(Exception e) {
-						possible = false;
-					}
-				}
-				// string array
-				else if(params[i].equals(String[].class)) {
-					try {
-						String[] argsArray = new String[args.length - (i - 1)];
-						
-						// fill in the array
-						for(int j = 0; j < argsArray.length; j++) {
-							argsArray[j] = args[i - 1 + j];
-						}
-						
-						// store the argument
-						arguments[i] = argsArray;
-					}
-					catch(Exception e) {
-						possible = false;
-					}
-				}
-				// something else?
-				else {
-					possible = false;
-				}
+			catch(EssentialsCommandException e) {
+				// remember why, in case nothing else fits either
+				lastFailMessage = "&c" + e.getMessage();
 			}
+			boolean possible = arguments != null;
 			
 			if(possible) {
 				// we found a possible function!
-				CommandInfo ci = registeredCommands.get(registrationToken);
-				
 				// check permissions first
-				if(ci.permissions != null && (sender instanceof Player)) {
+				if(ci.permissionNodes != null && (sender instanceof Player)) {
 					boolean hasPermission = false;
 					// loop through all the permissions and see if we have at least one
-					for(Iterator<String> it = ci.permissions.iterator(); it.hasNext();) {
-						if(PermissionsManager.playerHasPermission((Player)sender, it.next())) {
+					for(String node: ci.permissionNodes) {
+						if(PermissionsManager.playerHasNode((Player)sender, node)) {
 							hasPermission = true;
 							break;
 						}
@@ -454,24 +549,13 @@ public class CommandsManager implements CommandExecutor {
 					continue;
 				}
 				
-				// finally, call the method
-				// the null is because the method must be static
-				try {
-					boolean result = (Boolean)ci.method.invoke(null, arguments);
-					return result;
-				}
-				catch(Exception e) {					
-					if(e.getCause() instanceof EssentialsCommandException) {
-						ColourHandler.sendMessage(sender, "&c" + e.getCause().getMessage());
-						return true;
-					}
-					else {
-						ColourHandler.sendMessage(sender, "&cSomething went wrong! Alert an administrator!");
-						Logger.error("failed to execute command: " + label + " (" + e.getMessage() + ")");
-						e.printStackTrace();
-						return false;
-					}
+				// blocking commands get run off the main thread
+				if(ci.command.async() && executor != null) {
+					return invokeAsync(sender, label, ci, arguments);
 				}
+				
+				// finally, call the method
+				return invoke(sender, label, ci, arguments, false);
 			}
 		}
 		
@@ -484,4 +568,100 @@ public class CommandsManager implements CommandExecutor {
 		}
 		return false;
 	}
+	
+	// run the command's method, reporting anything that goes wrong to the sender
+	// (showUsage is for when bukkit won't be around to show it if the method returns false)
+	private boolean invoke(CommandSender sender, String label, CommandInfo ci, Object[] arguments, boolean showUsage) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			boolean result = ci.invoker.invoke(arguments);
+			failed = !result;
+			if(!result && showUsage) {
+				ColourHandler.sendMessage(sender, "&cUsage: %s", getUsage(label, ci));
+			}
+			return result;
+		}
+		catch(EssentialsCommandException e) {
+			ColourHandler.sendMessage(sender, "&c" + e.getMessage());
+			return true;
+		}
+		catch(Exception e) {
+			ColourHandler.sendMessage(sender, "&cSomething went wrong! Alert an administrator!");
+			Logger.error("failed to execute command: " + label + " (" + e.getMessage() + ")");
+			e.printStackTrace();
+			return false;
+		}
+		finally {
+			long nanos = System.nanoTime() - start;
+			ci.stats.record(nanos, failed, nanos > slowMillis * 1000000L);
+		}
+	}
+	
+	// ie "/home <player> <home name>"
+	private String getUsage(String label, CommandInfo ci) {
+		StringBuilder usage = new StringBuilder("/").append(label);
+		for(String argument: ci.command.arguments()) {
+			usage.append(" <").append(argument).append(">");
+		}
+		return usage.toString();
+	}
+	
+	// hand the command off to one of our worker threads
+	private boolean invokeAsync(final CommandSender sender, final String label, final CommandInfo ci, final Object[] arguments) {
+		// don't let anyone tie up all our threads
+		final String key = sender.getName().toLowerCase();
+		AtomicInteger count = null;
+		while(true) {
+			count = inFlight.get(key);
+			if(count == null) {
+				AtomicInteger created = new AtomicInteger(0);
+				count = inFlight.putIfAbsent(key, created);
+				if(count == null) {
+					count = created;
+				}
+			}
+			count.incrementAndGet();
+			// make sure their last command didn't just finish and throw this count away
+			if(inFlight.get(key) == count) {
+				break;
+			}
+			count.decrementAndGet();
+		}
+		if(count.get() > Math.max(1, maxInFlight)) {
+			finished(key, count);
+			ColourHandler.sendMessage(sender, "&cYou already have commands running, please wait for them to finish!");
+			return true;
+		}
+		
+		final AtomicInteger senderCount = count;
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// we've already told bukkit everything went fine
+						invoke(sender, label, ci, arguments, true);
+					}
+					finally {
+						finished(key, senderCount);
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException e) {
+			// we're shutting down
+			finished(key, count);
+			ColourHandler.sendMessage(sender, "&cSorry, commands can't be run right now!");
+		}
+		return true;
+	}
+	
+	// one of a sender's asynchronous commands is done
+	private void finished(String key, AtomicInteger count) {
+		if(count.decrementAndGet() <= 0) {
+			// forget about them if they don't have anything else going
+			inFlight.remove(key, count);
+		}
+	}
 }
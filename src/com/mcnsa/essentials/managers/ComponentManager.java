@@ -11,6 +11,7 @@ import java.util.zip.ZipInputStream;
 
 import com.mcnsa.essentials.annotations.ComponentInfo;
 import com.mcnsa.essentials.annotations.DatabaseTableInfo;
+import com.mcnsa.essentials.annotations.DatabaseTables;
 import com.mcnsa.essentials.utilities.Logger;
 
 public class ComponentManager {
@@ -72,8 +73,13 @@ public class ComponentManager {
 							// get our info
 							DatabaseTableInfo tableInfo = clazz.getAnnotation(DatabaseTableInfo.class);
 							
-							// register it with the database manager
-							DatabaseManager.addTableConstruct(tableInfo);
+							// register it with the schema manager
+							SchemaManager.addTable(tableInfo);
+						}
+						if(clazz.isAnnotationPresent(DatabaseTables.class)) {
+							for(DatabaseTableInfo tableInfo: clazz.getAnnotation(DatabaseTables.class).value()) {
+								SchemaManager.addTable(tableInfo);
+							}
 						}
 					}
 				}
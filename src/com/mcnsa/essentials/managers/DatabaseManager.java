@@ -1,21 +1,47 @@
 package com.mcnsa.essentials.managers;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.mcnsa.essentials.annotations.DatabaseTableInfo;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.mcnsa.essentials.MCNSAEssentials;
 import com.mcnsa.essentials.annotations.Setting;
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
 import com.mcnsa.essentials.exceptions.EssentialsDatabaseException;
+import com.mcnsa.essentials.interfaces.QueryCallback;
+import com.mcnsa.essentials.interfaces.RowMapper;
+import com.mcnsa.essentials.interfaces.RowVisitor;
+import com.mcnsa.essentials.interfaces.UnitOfWork;
+import com.mcnsa.essentials.runnables.ConnectionPoolTask;
+import com.mcnsa.essentials.runnables.DatabaseProbeTask;
+import com.mcnsa.essentials.utilities.CircuitBreaker;
+import com.mcnsa.essentials.utilities.ConnectionPool;
 import com.mcnsa.essentials.utilities.Logger;
+import com.mcnsa.essentials.utilities.Page;
+import com.mcnsa.essentials.utilities.QueryStatistics;
+import com.mcnsa.essentials.utilities.SQLDialect;
+import com.mcnsa.essentials.utilities.Transaction;
 
 // http://zetcode.com/db/mysqljava/
 
@@ -25,100 +51,369 @@ public class DatabaseManager {
 	@Setting(node = "database.username") public static String user = "mcnsa";
 	@Setting(node = "database.password") public static String password = "mcnsa";
 	
+	// our connection pool settings
+	@Setting(node = "database.pool.min-size") public static int poolMinSize = 2;
+	@Setting(node = "database.pool.max-size") public static int poolMaxSize = 8;
+	@Setting(node = "database.pool.idle-timeout-seconds") public static int poolIdleTimeout = 300;
+	@Setting(node = "database.pool.acquire-timeout-millis") public static int poolAcquireTimeout = 5000;
+	@Setting(node = "database.pool.maintenance-interval-seconds") public static int poolMaintenanceInterval = 60;
+	@Setting(node = "database.statement-cache-size") public static int statementCacheSize = 32;
+	@Setting(node = "database.fetch-size") public static int fetchSize = 100;
+	
+	// our asynchronous query settings
+	@Setting(node = "database.async-threads") public static int asyncThreads = 2;
+	
+	// our circuit breaker settings
+	@Setting(node = "database.breaker.failure-threshold") public static int breakerFailureThreshold = 5;
+	@Setting(node = "database.breaker.slow-query-millis") public static int breakerSlowQueryMillis = 2000;
+	@Setting(node = "database.breaker.probe-interval-seconds") public static int breakerProbeInterval = 10;
+	
+	// our statistics settings
+	@Setting(node = "database.slow-query-millis") public static int slowQueryThreshold = 250;
+	
 	// our connections
-	private static Connection connection = null;
-	private static PreparedStatement preparedStatement = null;
-	private static ResultSet resultSet = null;
+	private static ConnectionPool pool = null;
+	private static SQLDialect dialect = null;
+	private static BukkitTask poolTask = null;
+	
+	// keeps us from blocking on a database that's down
+	private static CircuitBreaker breaker = null;
+	private static BukkitTask probeTask = null;
 	
-	private static HashMap<String, String> tableConstructions = new HashMap<String, String>();
+	// where our asynchronous queries run
+	private static ExecutorService executor = null;
+	
+	// keep track of how our queries are doing
+	private static QueryStatistics statistics = new QueryStatistics();
+	private static Thread mainThread = null;
+	// who submitted the asynchronous query a database thread is working on
+	private static ThreadLocal<String> asyncCaller = new ThreadLocal<String>();
 	
 	public void enable() {
+		// we get enabled on the main server thread
+		mainThread = Thread.currentThread();
+		
+		// start our asynchronous query threads
+		executor = Executors.newFixedThreadPool(Math.max(1, asyncThreads), new ThreadFactory() {
+			private AtomicInteger threadNumber = new AtomicInteger(1);
+			
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "MCNSAEssentials-Database-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		breaker = new CircuitBreaker("The database", breakerFailureThreshold);
+		
 		try {
 			// connect
 			connect();
 			
 			// build our tables
-			ensureTablesExist();
+			SchemaManager.ensureSchema();
 		}
 		catch(Exception e) {
 			// disconnect on error
 			e.printStackTrace();
 			Logger.error("Failed to initialize database connection! Using url <%s>, user <%s>, pass <%s>", url, user, password);
-			Logger.warning("You won't be able to use any commands that utilize the database!");
+			Logger.warning("You won't be able to use any commands that utilize the database until it can be reached!");
 			disconnect();
+			breaker.trip();
 		}
+		
+		// keep checking on the database if it goes away
+		long period = Math.max(1, breakerProbeInterval) * 20L;
+		probeTask = Bukkit.getServer().getScheduler().runTaskTimerAsynchronously(
+				MCNSAEssentials.getInstance(), new DatabaseProbeTask(), period, period);
 	}
 	
 	public void disable() {
+		if(probeTask != null) {
+			probeTask.cancel();
+			probeTask = null;
+		}
+		
+		// let any outstanding queries finish up
+		if(executor != null) {
+			executor.shutdown();
+			try {
+				if(!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+					Logger.warning("Timed out waiting for asynchronous queries to finish!");
+					executor.shutdownNow();
+				}
+			}
+			catch(InterruptedException e) {
+				executor.shutdownNow();
+			}
+			executor = null;
+		}
+		
 		disconnect();
 	}
 	
 	// connection commands
-	private void connect() throws SQLException, EssentialsDatabaseException {	
-		connection = DriverManager.getConnection(url, user, password);
-		preparedStatement = connection.prepareStatement("select version();");
-		resultSet = preparedStatement.executeQuery();
-		
-		if(resultSet.next()) {
-			Logger.log("&aDatabase connected! Database version: &f%s", resultSet.getString(1));
+	private static synchronized void connect() throws SQLException, EssentialsDatabaseException {
+		// figure out what kind of database we're talking to
+		dialect = SQLDialect.forUrl(url);
+		try {
+			Class.forName(dialect.getDriverClass());
 		}
-		else {
-			throw new EssentialsDatabaseException("Failed to retrieve database version!");
+		catch(ClassNotFoundException e) {
+			Logger.warning("Couldn't find the %s driver (%s), hoping one is already registered...", dialect.getName(), dialect.getDriverClass());
 		}
-	}
-	private void disconnect() {
+		
+		// set up our pool
+		int maxSize = poolMaxSize;
+		int minSize = poolMinSize;
+		if(dialect.getMaxConnections() > 0) {
+			maxSize = Math.min(maxSize, dialect.getMaxConnections());
+			minSize = Math.min(minSize, maxSize);
+		}
+		pool = new ConnectionPool(url, user, password, dialect.getConnectionProperties(url),
+				minSize, maxSize, poolIdleTimeout * 1000L, poolAcquireTimeout, statementCacheSize);
+		
+		Connection connection = null;
+		PreparedStatement preparedStatement = null;
 		try {
-			if(resultSet != null) {
-				resultSet.close();
-			}
+			connection = pool.getConnection();
+			preparedStatement = connection.prepareStatement(dialect.getVersionQuery());
+			ResultSet resultSet = preparedStatement.executeQuery();
 			
-			if(preparedStatement != null) {
-				preparedStatement.close();
+			if(resultSet.next()) {
+				Logger.log("&aDatabase connected! Database version: &f%s %s", dialect.getName(), resultSet.getString(1));
 			}
-			
-			if(connection != null) {
-				connection.close();
+			else {
+				throw new EssentialsDatabaseException("Failed to retrieve database version!");
 			}
 		}
-		catch(SQLException e) {
-			e.printStackTrace();
-			Logger.error("Failed to terminate database connection! (%s)", e.getMessage());
+		finally {
+			close(preparedStatement);
+			close(connection);
 		}
+		
+		// open the rest of our connections
+		pool.fill();
+		
+		// and keep the pool tidy
+		long period = poolMaintenanceInterval * 20L;
+		poolTask = Bukkit.getServer().getScheduler().runTaskTimerAsynchronously(
+				MCNSAEssentials.getInstance(), new ConnectionPoolTask(pool), period, period);
 	}
-	
-	// table construction commands
-	public static void addTableConstruct(DatabaseTableInfo tableInfo) {
-		String query = String.format("CREATE TABLE IF NOT EXISTS %s ( id INTEGER NOT NULL PRIMARY KEY AUTO_INCREMENT UNIQUE", tableInfo.name());
-		for(String field: tableInfo.fields()) {
-			query += ", " + field + " NOT NULL";
+	private static synchronized void disconnect() {
+		if(poolTask != null) {
+			poolTask.cancel();
+			poolTask = null;
+		}
+		
+		if(pool != null) {
+			pool.close();
+			pool = null;
 		}
-		query += " );";
-		tableConstructions.put(tableInfo.name(), query);
 	}
-	private void ensureTablesExist() throws SQLException {
-		for(String table: tableConstructions.keySet()) {
-			try {
-				preparedStatement = connection.prepareStatement(tableConstructions.get(table));
-				preparedStatement.executeUpdate();
+	
+	// checks on the database while our breaker is open,
+	// reconnecting if we have to
+	public static void probe() {
+		if(breaker == null || !breaker.beginProbe()) {
+			return;
+		}
+		
+		boolean reconnecting = (pool == null);
+		try {
+			if(reconnecting) {
+				// we never managed to connect (or lost it entirely)
+				// we're only back once our tables are, and the breaker won't hand
+				// out connections until then, so take one straight from the pool
+				connect();
+				SchemaManager.ensureSchema(pool.getConnection());
+				breaker.recordSuccess();
 			}
-			catch(SQLException e) {
-				Logger.error("Failed to ensure table construction: (%s)! Skipping...", e.getMessage());
+			else {
+				// see if we can actually talk to it
+				Connection connection = pool.getConnection();
+				Statement statement = null;
+				try {
+					statement = connection.createStatement();
+					statement.executeQuery(dialect.getVersionQuery()).close();
+				}
+				finally {
+					if(statement != null) {
+						statement.close();
+					}
+					connection.close();
+				}
+				breaker.recordSuccess();
 			}
-			finally {
-				preparedStatement.close();
+		}
+		catch(Exception e) {
+			// we're still not there, don't keep a half-built pool around
+			if(reconnecting && breaker.getState() != CircuitBreaker.State.CLOSED) {
+				disconnect();
 			}
+			breaker.trip();
 		}
 	}
 	
+	// whether queries have any hope of working right now
+	public static boolean isAvailable() {
+		return pool != null && breaker != null && breaker.getState() == CircuitBreaker.State.CLOSED;
+	}
+	
 	// utility commands
-	public static Connection getConnection() {
-		return connection;
+	// borrows a connection from our pool, make sure you close it when you're done!
+	public static Connection getConnection() throws SQLException, EssentialsDatabaseException {
+		ConnectionPool pool = DatabaseManager.pool;
+		if(pool == null) {
+			throw new EssentialsDatabaseException("Not connected to a database!");
+		}
+		if(breaker != null && !breaker.allowRequest()) {
+			throw new EssentialsDatabaseException("The database is unavailable right now!");
+		}
+		
+		try {
+			return pool.getConnection();
+		}
+		catch(SQLException e) {
+			// not being able to connect at all is a bad sign, but the pool
+			// just being busy (or closed) says nothing about the database
+			if(breaker != null && !(e instanceof ConnectionPool.PoolException)) {
+				breaker.recordFailure();
+			}
+			throw e;
+		}
 	}
 	
-	private static PreparedStatement prepareStatement(String query, Object... args) throws SQLException, EssentialsDatabaseException {
+	public static CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+	
+	public static ConnectionPool getConnectionPool() {
+		return pool;
+	}
+	
+	public static SQLDialect getDialect() {
+		return dialect;
+	}
+	
+	// every query we run goes through these so we can keep an eye on the database's health
+	private static ResultSet executeQuery(PreparedStatement preparedStatement) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			ResultSet results = preparedStatement.executeQuery();
+			querySucceeded(start);
+			return results;
+		}
+		catch(SQLException e) {
+			queryFailed(e);
+			throw e;
+		}
+	}
+	
+	private static int executeUpdate(PreparedStatement preparedStatement) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			int results = preparedStatement.executeUpdate();
+			querySucceeded(start);
+			return results;
+		}
+		catch(SQLException e) {
+			queryFailed(e);
+			throw e;
+		}
+	}
+	
+	private static int[] executeBatch(PreparedStatement preparedStatement) throws SQLException {
+		long start = System.nanoTime();
+		try {
+			int[] results = preparedStatement.executeBatch();
+			querySucceeded(start);
+			return results;
+		}
+		catch(SQLException e) {
+			queryFailed(e);
+			throw e;
+		}
+	}
+	
+	private static void querySucceeded(long start) {
+		if(breaker == null) {
+			return;
+		}
+		
+		// a really slow query counts against the database too
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		if(elapsed >= breakerSlowQueryMillis) {
+			breaker.recordFailure();
+		}
+		else {
+			breaker.recordSuccess();
+		}
+	}
+	
+	private static void queryFailed(SQLException e) {
+		// only count errors that mean we're having trouble talking to the database,
+		// not ones that mean the query itself was bad
+		if(breaker == null) {
+			return;
+		}
+		String state = e.getSQLState();
+		if((state != null && state.startsWith("08"))
+				|| e instanceof SQLTransientConnectionException
+				|| e instanceof SQLNonTransientConnectionException
+				|| e instanceof SQLRecoverableException
+				|| e instanceof SQLTimeoutException) {
+			breaker.recordFailure();
+		}
+	}
+	
+	private static void close(PreparedStatement preparedStatement) {
+		if(preparedStatement == null) {
+			return;
+		}
+		try {
+			preparedStatement.close();
+		}
+		catch(SQLException e) {
+			e.printStackTrace();
+			Logger.error("Failed to close prepared statement on query: (%s)!", e.getMessage());
+		}
+	}
+	
+	private static void close(Connection connection) {
+		if(connection == null) {
+			return;
+		}
+		try {
+			connection.close();
+		}
+		catch(SQLException e) {
+			e.printStackTrace();
+			Logger.error("Failed to return database connection: (%s)!", e.getMessage());
+		}
+	}
+	
+	private static PreparedStatement prepareStatement(Connection connection, String query, Object... args) throws SQLException, EssentialsDatabaseException {
 		// prepare our statement
-		preparedStatement = connection.prepareStatement(query);
+		PreparedStatement preparedStatement = connection.prepareStatement(query);
 		
+		try {
+			bindParameters(preparedStatement, args);
+		}
+		catch(EssentialsDatabaseException e) {
+			close(preparedStatement);
+			throw e;
+		}
+		catch(SQLException e) {
+			close(preparedStatement);
+			throw e;
+		}
+		
+		return preparedStatement;
+	}
+	
+	public static void bindParameters(PreparedStatement preparedStatement, Object... args) throws SQLException, EssentialsDatabaseException {
 		// keep track of where in the statement to do stuff
 		int i = 1;
 		for(Object arg: args) {
@@ -151,49 +446,71 @@ public class DatabaseManager {
 			// increment our index
 			i++;
 		}
-		
-		return preparedStatement;
 	}
 	
 	// data access commands
 	public static ArrayList<HashMap<String, Object>> accessQuery(String query, Object... args) throws EssentialsCommandException {
+		Connection connection = null;
 		try {
-			return accessQuery(prepareStatement(query, args));
+			connection = getConnection();
+			return accessQuery(connection, query, args);
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
 		}
 		finally {
-			try {
-				preparedStatement.close();
-			}
-			catch(SQLException e) {
-				e.printStackTrace();
-				Logger.error("Failed to close prepared statement on query: (%s)!", e.getMessage());
-			}
+			close(connection);
 		}
 	}
 	
+	// runs on a connection you already have, ie inside a transaction
+	// (the caller is responsible for closing the connection)
+	public static ArrayList<HashMap<String, Object>> accessQuery(Connection connection, String query, Object... args) throws EssentialsCommandException {
+		long start = System.nanoTime();
+		int rows = -1;
+		try {
+			ArrayList<HashMap<String, Object>> results = accessQuery(prepareStatement(connection, query, args));
+			rows = results.size();
+			return results;
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			recordQuery(query, start, rows);
+		}
+	}
+	
+	// executes and closes the given statement
+	// (the caller is responsible for closing the statement's connection)
 	public static ArrayList<HashMap<String, Object>> accessQuery(PreparedStatement preparedStatement) throws EssentialsCommandException {
 		try {
-			// make sure we have a connection
-			if(connection == null || connection.isClosed()) {
-				throw new EssentialsDatabaseException("Not connected to a database!");
-			}
-			
 			// ok, now execute our query!
-			ResultSet results = preparedStatement.executeQuery();
+			ResultSet results = executeQuery(preparedStatement);
 			
 			// get the result set meta data so we can access column names
+			// (only once, not for every row)
 			ResultSetMetaData metaData = results.getMetaData();
+			int columnCount = metaData.getColumnCount();
+			String[] columnNames = new String[columnCount];
+			for(int column = 0; column < columnCount; column++) {
+				columnNames[column] = metaData.getColumnName(column + 1);
+			}
 			
 			// build our returned results
 			ArrayList<HashMap<String, Object>> ret = new ArrayList<HashMap<String, Object>>();
 			while(results.next()) {
-				HashMap<String, Object> row = new HashMap<String, Object>();
-				for(int column = 1; column <= metaData.getColumnCount(); column++) {
-					row.put(metaData.getColumnName(column), results.getObject(column));
+				HashMap<String, Object> row = new HashMap<String, Object>(columnCount * 2);
+				for(int column = 0; column < columnCount; column++) {
+					row.put(columnNames[column], results.getObject(column + 1));
 				}
 				ret.add(row);
 			}
@@ -205,57 +522,515 @@ public class DatabaseManager {
 			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
 		}
 		finally {
-			try {
-				preparedStatement.close();
+			close(preparedStatement);
+		}
+	}
+	
+	// maps every row into a record with the given mapper
+	public static <T> ArrayList<T> accessQuery(RowMapper<T> mapper, String query, Object... args) throws EssentialsCommandException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			return accessQuery(connection, mapper, query, args);
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			close(connection);
+		}
+	}
+	
+	// (the caller is responsible for closing the connection)
+	public static <T> ArrayList<T> accessQuery(Connection connection, RowMapper<T> mapper, String query, Object... args) throws EssentialsCommandException {
+		long start = System.nanoTime();
+		int rows = -1;
+		try {
+			ArrayList<T> results = accessQuery(mapper, prepareStatement(connection, query, args));
+			rows = results.size();
+			return results;
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			recordQuery(query, start, rows);
+		}
+	}
+	
+	// executes and closes the given statement
+	// (the caller is responsible for closing the statement's connection)
+	public static <T> ArrayList<T> accessQuery(RowMapper<T> mapper, PreparedStatement preparedStatement) throws EssentialsCommandException {
+		try {
+			// ok, now execute our query!
+			ResultSet results = executeQuery(preparedStatement);
+			
+			// figure out where our columns are once
+			int[] columns = findColumns(results, mapper);
+			
+			// and map our rows
+			ArrayList<T> ret = new ArrayList<T>();
+			while(results.next()) {
+				ret.add(mapper.mapRow(results, columns));
 			}
-			catch(SQLException e) {
-				e.printStackTrace();
-				Logger.error("Failed to close prepared statement on query: (%s)!", e.getMessage());
+			
+			return ret;
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			close(preparedStatement);
+		}
+	}
+	
+	// gets a single page of results, letting the database do the paging
+	// countQuery should return a single count of all the matching rows,
+	// query should select those rows (without a limit, one gets added)
+	// both queries get the same arguments
+	public static <T> Page<T> pageQuery(RowMapper<T> mapper, String countQuery, String query, int pageIndex, int pageSize, Object... args) throws EssentialsCommandException {
+		if(pageIndex < 0 || pageSize <= 0) {
+			throw new EssentialsCommandException("Invalid page!");
+		}
+		
+		Connection connection = null;
+		PreparedStatement preparedStatement = null;
+		try {
+			connection = getConnection();
+			
+			// first figure out how many rows we have
+			int totalRows = 0;
+			long start = System.nanoTime();
+			preparedStatement = prepareStatement(connection, countQuery, args);
+			ResultSet results = executeQuery(preparedStatement);
+			if(results.next()) {
+				totalRows = results.getInt(1);
 			}
+			close(preparedStatement);
+			preparedStatement = null;
+			recordQuery(countQuery, start, 1);
+			
+			// don't bother asking for a page that doesn't exist
+			long offset = (long)pageIndex * pageSize;
+			if(offset >= totalRows) {
+				return new Page<T>(pageIndex, pageSize, totalRows, new ArrayList<T>());
+			}
+			
+			// now get just our page
+			Object[] pageArgs = new Object[args.length + 2];
+			System.arraycopy(args, 0, pageArgs, 0, args.length);
+			pageArgs[args.length] = pageSize;
+			pageArgs[args.length + 1] = (int)offset;
+			
+			String pageQuery = query.trim();
+			if(pageQuery.endsWith(";")) {
+				pageQuery = pageQuery.substring(0, pageQuery.length() - 1);
+			}
+			pageQuery += " limit ? offset ?;";
+			
+			start = System.nanoTime();
+			ArrayList<T> rows = accessQuery(mapper, prepareStatement(connection, pageQuery, pageArgs));
+			recordQuery(pageQuery, start, rows.size());
+			
+			return new Page<T>(pageIndex, pageSize, totalRows, rows);
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			close(preparedStatement);
+			close(connection);
 		}
 	}
 	
-	public static int updateQuery(String query, Object... args) throws EssentialsCommandException {
+	// reads rows one at a time, handing each one to the visitor
+	// instead of holding the whole result in memory
+	// returns the number of rows visited
+	public static <T> int streamQuery(RowMapper<T> mapper, RowVisitor<T> visitor, String query, Object... args) throws EssentialsCommandException {
+		Connection connection = null;
+		long start = 0;
+		int rows = -1;
 		try {
-			return updateQuery(prepareStatement(query, args));
+			connection = getConnection();
+			start = System.nanoTime();
+			rows = streamQuery(mapper, visitor, prepareStatement(connection, query, args));
+			return rows;
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
 		}
 		catch (Exception e) {
 			e.printStackTrace();
 			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
 		}
 		finally {
-			try {
-				preparedStatement.close();
+			close(connection);
+			recordQuery(query, start, rows);
+		}
+	}
+	
+	// executes and closes the given statement
+	// (the caller is responsible for closing the statement's connection)
+	public static <T> int streamQuery(RowMapper<T> mapper, RowVisitor<T> visitor, PreparedStatement preparedStatement) throws EssentialsCommandException {
+		try {
+			// let the driver fetch rows in chunks rather than all at once
+			preparedStatement.setFetchSize(fetchSize);
+			
+			// ok, now execute our query!
+			ResultSet results = executeQuery(preparedStatement);
+			int[] columns = findColumns(results, mapper);
+			
+			int count = 0;
+			while(results.next()) {
+				count++;
+				if(!visitor.visit(mapper.mapRow(results, columns))) {
+					break;
+				}
 			}
-			catch(SQLException e) {
-				e.printStackTrace();
-				Logger.error("Failed to close prepared statement on query: (%s)!", e.getMessage());
+			
+			return count;
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			close(preparedStatement);
+		}
+	}
+	
+	// keep track of a query we ran (rows < 0 if it failed)
+	private static void recordQuery(String query, long start, long rows) {
+		if(start == 0) {
+			// we never even got to run it
+			return;
+		}
+		
+		long elapsed = System.nanoTime() - start;
+		boolean onMainThread = Thread.currentThread() == mainThread;
+		boolean slow = slowQueryThreshold > 0 && elapsed >= slowQueryThreshold * 1000000L;
+		statistics.record(query, elapsed, rows, onMainThread, slow);
+		
+		if(slow) {
+			Logger.warning("Slow query (%d ms on the %s thread) from %s: %s",
+					elapsed / 1000000,
+					onMainThread ? "main" : "async",
+					findCaller(),
+					QueryStatistics.normalize(query));
+		}
+	}
+	
+	// figure out which bit of our code asked for a query
+	private static String findCaller() {
+		String caller = asyncCaller.get();
+		if(caller != null) {
+			return caller;
+		}
+		
+		for(StackTraceElement element: Thread.currentThread().getStackTrace()) {
+			String className = element.getClassName();
+			if(className.startsWith("com.mcnsa.essentials.") && !className.startsWith(DatabaseManager.class.getName())) {
+				return className.substring(className.lastIndexOf('.') + 1) + "." + element.getMethodName();
 			}
 		}
+		return "unknown";
 	}
 	
+	public static QueryStatistics getQueryStatistics() {
+		return statistics;
+	}
+	
+	private static int[] findColumns(ResultSet results, RowMapper<?> mapper) throws SQLException {
+		String[] columnNames = mapper.getColumns();
+		int[] columns = new int[columnNames.length];
+		for(int i = 0; i < columnNames.length; i++) {
+			columns[i] = results.findColumn(columnNames[i]);
+		}
+		return columns;
+	}
+	
+	public static int updateQuery(String query, Object... args) throws EssentialsCommandException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			return updateQuery(connection, query, args);
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			close(connection);
+		}
+	}
+	
+	// (the caller is responsible for closing the connection)
+	public static int updateQuery(Connection connection, String query, Object... args) throws EssentialsCommandException {
+		long start = System.nanoTime();
+		int rows = -1;
+		try {
+			rows = updateQuery(prepareStatement(connection, query, args));
+			return rows;
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
+		}
+		finally {
+			recordQuery(query, start, rows);
+		}
+	}
+	
+	// executes and closes the given statement
+	// (the caller is responsible for closing the statement's connection)
 	public static int updateQuery(PreparedStatement preparedStatement) throws EssentialsCommandException {
 		try {
-			// make sure we have a connection
-			if(connection == null || connection.isClosed()) {
-				throw new EssentialsDatabaseException("Not connected to a database!");
-			}
-			
 			// ok, now execute our query!
-			return preparedStatement.executeUpdate();
+			return executeUpdate(preparedStatement);
 		}
 		catch(Exception e) {
 			e.printStackTrace();
 			throw new EssentialsCommandException("Failed to prepare query: (%s)!", e.getMessage());
 		}
 		finally {
+			close(preparedStatement);
+		}
+	}
+	
+	// runs the same statement once for every set of arguments
+	// as a single jdbc batch inside one transaction
+	public static int[] batchQuery(String query, List<Object[]> rows) throws EssentialsCommandException {
+		Connection connection = null;
+		PreparedStatement preparedStatement = null;
+		long start = 0;
+		int numRows = -1;
+		try {
+			connection = getConnection();
+			start = System.nanoTime();
+			connection.setAutoCommit(false);
+			
+			preparedStatement = connection.prepareStatement(query);
+			for(Object[] row: rows) {
+				bindParameters(preparedStatement, row);
+				preparedStatement.addBatch();
+			}
+			int[] results = executeBatch(preparedStatement);
+			
+			connection.commit();
+			numRows = rows.size();
+			return results;
+		}
+		catch(Exception e) {
+			// our connection will be rolled back when it goes back to the pool
+			throw new EssentialsCommandException("Failed to execute batch: (%s)!", e.getMessage());
+		}
+		finally {
+			close(preparedStatement);
+			close(connection);
+			recordQuery(query, start, numRows);
+		}
+	}
+	
+	// runs a unit of work on a single connection as one transaction
+	// everything it does is committed together once it returns,
+	// or rolled back if it throws
+	public static <T> T transaction(UnitOfWork<T> work) throws EssentialsCommandException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			
+			T result = work.execute(new Transaction(connection));
+			
+			long start = System.nanoTime();
+			connection.commit();
+			querySucceeded(start);
+			return result;
+		}
+		catch(EssentialsCommandException e) {
+			throw e;
+		}
+		catch(SQLException e) {
+			queryFailed(e);
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to commit transaction: (%s)!", e.getMessage());
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+			throw new EssentialsCommandException("Failed to run transaction: (%s)!", e.getMessage());
+		}
+		finally {
+			// anything we didn't commit will be rolled back when it goes back to the pool
+			close(connection);
+		}
+	}
+	
+	// asynchronous data access commands
+	// these run on our database threads and deliver their results
+	// back on the main server thread
+	private static abstract class AsyncQuery<T> implements Runnable {
+		private QueryCallback<T> callback = null;
+		
+		public AsyncQuery(QueryCallback<T> callback) {
+			this.callback = callback;
+		}
+		
+		protected abstract T execute() throws EssentialsCommandException;
+		
+		@Override
+		public void run() {
+			T result = null;
+			EssentialsCommandException failure = null;
+			
+			// blame whoever is waiting on us for any slow queries
+			if(callback != null) {
+				String className = callback.getClass().getName();
+				int inner = className.indexOf('$');
+				if(inner >= 0) {
+					className = className.substring(0, inner);
+				}
+				asyncCaller.set(className.substring(className.lastIndexOf('.') + 1) + " (async)");
+			}
+			
 			try {
-				preparedStatement.close();
+				result = execute();
 			}
-			catch(SQLException e) {
+			catch(EssentialsCommandException e) {
+				failure = e;
+			}
+			catch(Exception e) {
 				e.printStackTrace();
-				Logger.error("Failed to close prepared statement on query: (%s)!", e.getMessage());
+				failure = new EssentialsCommandException("Failed to execute query: (%s)!", e.getMessage());
+			}
+			finally {
+				asyncCaller.remove();
+			}
+			deliver(callback, result, failure);
+		}
+	}
+	
+	private static <T> void deliver(final QueryCallback<T> callback, final T result, final EssentialsCommandException failure) {
+		Runnable delivery = new Runnable() {
+			@Override
+			public void run() {
+				if(callback == null) {
+					// no one is listening, but don't lose errors
+					if(failure != null) {
+						Logger.error(failure.getMessage());
+					}
+					return;
+				}
+				
+				if(failure != null) {
+					callback.onFailure(failure);
+					return;
+				}
+				
+				try {
+					callback.onResult(result);
+				}
+				catch(EssentialsCommandException e) {
+					callback.onFailure(e);
+				}
+			}
+		};
+		
+		try {
+			Bukkit.getServer().getScheduler().scheduleSyncDelayedTask(MCNSAEssentials.getInstance(), delivery);
+		}
+		catch(Exception e) {
+			// we're probably shutting down, deliver it here instead
+			delivery.run();
+		}
+	}
+	
+	private static <T> void submit(AsyncQuery<T> query) {
+		try {
+			if(executor == null) {
+				throw new RejectedExecutionException();
 			}
+			executor.execute(query);
+		}
+		catch(RejectedExecutionException e) {
+			deliver(query.callback, null, new EssentialsCommandException("The database is not available right now!"));
 		}
 	}
+	
+	public static void accessQueryAsync(QueryCallback<ArrayList<HashMap<String, Object>>> callback, final String query, final Object... args) {
+		submit(new AsyncQuery<ArrayList<HashMap<String, Object>>>(callback) {
+			@Override
+			protected ArrayList<HashMap<String, Object>> execute() throws EssentialsCommandException {
+				return accessQuery(query, args);
+			}
+		});
+	}
+	
+	public static <T> void accessQueryAsync(QueryCallback<ArrayList<T>> callback, final RowMapper<T> mapper, final String query, final Object... args) {
+		submit(new AsyncQuery<ArrayList<T>>(callback) {
+			@Override
+			protected ArrayList<T> execute() throws EssentialsCommandException {
+				return accessQuery(mapper, query, args);
+			}
+		});
+	}
+	
+	public static <T> void pageQueryAsync(QueryCallback<Page<T>> callback, final RowMapper<T> mapper, final String countQuery, final String query, final int pageIndex, final int pageSize, final Object... args) {
+		submit(new AsyncQuery<Page<T>>(callback) {
+			@Override
+			protected Page<T> execute() throws EssentialsCommandException {
+				return pageQuery(mapper, countQuery, query, pageIndex, pageSize, args);
+			}
+		});
+	}
+	
+	// the visitor is called on a database thread, the callback
+	// on the main thread once all the rows have been visited
+	public static <T> void streamQueryAsync(QueryCallback<Integer> callback, final RowMapper<T> mapper, final RowVisitor<T> visitor, final String query, final Object... args) {
+		submit(new AsyncQuery<Integer>(callback) {
+			@Override
+			protected Integer execute() throws EssentialsCommandException {
+				return streamQuery(mapper, visitor, query, args);
+			}
+		});
+	}
+	
+	public static <T> void transactionAsync(QueryCallback<T> callback, final UnitOfWork<T> work) {
+		submit(new AsyncQuery<T>(callback) {
+			@Override
+			protected T execute() throws EssentialsCommandException {
+				return transaction(work);
+			}
+		});
+	}
+	
+	public static void updateQueryAsync(QueryCallback<Integer> callback, final String query, final Object... args) {
+		submit(new AsyncQuery<Integer>(callback) {
+			@Override
+			protected Integer execute() throws EssentialsCommandException {
+				return updateQuery(query, args);
+			}
+		});
+	}
 }
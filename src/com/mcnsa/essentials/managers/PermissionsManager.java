@@ -1,20 +1,45 @@
 package com.mcnsa.essentials.managers;
 
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 
+import com.mcnsa.essentials.MCNSAEssentials;
 import com.mcnsa.essentials.utilities.Logger;
 
 import ru.tehkode.permissions.PermissionGroup;
 import ru.tehkode.permissions.bukkit.PermissionsEx;
+import ru.tehkode.permissions.events.PermissionEntityEvent;
+import ru.tehkode.permissions.events.PermissionSystemEvent;
 
-public class PermissionsManager {
+public class PermissionsManager implements Listener {
+	private static final String NODE_PREFIX = "mcnsaessentials.";
+	// don't let a runaway permission builder (ie "backpack.size.%d") eat all our memory
+	private static final int MAX_NODES = 1000;
+	
 	// keep track of permissions
 	static ru.tehkode.permissions.PermissionManager permissions = null;
 	
+	// our full permission nodes, ie "warp.set.public" -> "mcnsaessentials.warp.set.public",
+	// so we only ever build (and hash) each of them once
+	private static ConcurrentHashMap<String, String> nodes = new ConcurrentHashMap<String, String>();
+	// what we've been told about each online player, by their (lower case) name
+	private static ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> decisions = new ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>>();
+	
+	// keep track of how we're doing
+	private static AtomicLong hitCount = new AtomicLong(0);
+	private static AtomicLong missCount = new AtomicLong(0);
+	private static AtomicLong invalidationCount = new AtomicLong(0);
+	
 	public PermissionsManager() {
 		// set up permissions
 		if(Bukkit.getServer().getPluginManager().isPluginEnabled("PermissionsEx")) {
@@ -24,6 +49,9 @@ public class PermissionsManager {
 		else {
 			Logger.error("PermissionsEx not found!");
 		}
+		
+		// forget what we know whenever it might have changed
+		Bukkit.getServer().getPluginManager().registerEvents(this, MCNSAEssentials.getInstance());
 	}
 	
 	public static boolean playerHasPermission(CommandSender sender, String permission) {
@@ -36,27 +64,88 @@ public class PermissionsManager {
 	}
 	
 	public static boolean playerHasPermission(Player player, String permission) {
-		if(permissions != null) {
-			return permissions.has(player, "mcnsaessentials." + permission);
-		}
-		else {
+		return playerHasNode(player, getNode(permission));
+	}
+	
+	// for a node from getNode
+	public static boolean playerHasNode(Player player, String node) {
+		if(permissions == null) {
 			return player.isOp();
 		}
+		
+		ConcurrentHashMap<String, Boolean> playerDecisions = decisions.get(player.getName().toLowerCase());
+		if(playerDecisions != null) {
+			Boolean decision = playerDecisions.get(node);
+			if(decision != null) {
+				hitCount.incrementAndGet();
+				return decision;
+			}
+		}
+		missCount.incrementAndGet();
+		
+		long generation = invalidationCount.get();
+		boolean hasPermission = permissions.has(player, node);
+		
+		// only remember things for players who are still around to be forgotten when they leave
+		if(player.isOnline()) {
+			if(playerDecisions == null) {
+				ConcurrentHashMap<String, Boolean> created = new ConcurrentHashMap<String, Boolean>();
+				playerDecisions = decisions.putIfAbsent(player.getName().toLowerCase(), created);
+				if(playerDecisions == null) {
+					playerDecisions = created;
+				}
+			}
+			if(playerDecisions.size() < MAX_NODES) {
+				playerDecisions.put(node, hasPermission);
+			}
+			
+			// if something changed while we were asking, what we were told might be out of date
+			if(invalidationCount.get() != generation) {
+				playerDecisions.remove(node);
+			}
+		}
+		return hasPermission;
 	}
 	
 	public static boolean playerHasPermission(String playerTarget, String permission) {
 		Player player = Bukkit.getServer().getPlayer(playerTarget);
 		if(permissions != null) {
 			if(player != null) {
-				return permissions.has(player, "mcnsaessentials." + permission);
+				return playerHasPermission(player, permission);
 			}
 			else {
-				permissions.has(playerTarget, permission, Bukkit.getServer().getWorlds().get(0).getName());
+				return permissions.has(playerTarget, getNode(permission), Bukkit.getServer().getWorlds().get(0).getName());
 			}
 		}
 		return false;
 	}
 	
+	// the full (interned) node for one of our permissions, ie "warp.set.public"
+	public static String getNode(String permission) {
+		String node = nodes.get(permission);
+		if(node != null) {
+			return node;
+		}
+		
+		node = (NODE_PREFIX + permission).intern();
+		if(nodes.size() < MAX_NODES) {
+			nodes.putIfAbsent(permission, node);
+		}
+		return node;
+	}
+	
+	// forget what we know about a player's permissions
+	public static void invalidate(String playerName) {
+		invalidationCount.incrementAndGet();
+		decisions.remove(playerName.toLowerCase());
+	}
+	
+	// forget what we know about everyone's permissions
+	public static void invalidateAll() {
+		invalidationCount.incrementAndGet();
+		decisions.clear();
+	}
+	
 	public static ArrayList<String> getGroups(Player player) {
 		if(permissions == null) {
 			return null;
@@ -70,4 +159,54 @@ public class PermissionsManager {
 		
 		return groupNames;
 	}
+	
+	// statistics
+	public static long getHitCount() {
+		return hitCount.get();
+	}
+	
+	public static long getMissCount() {
+		return missCount.get();
+	}
+	
+	public static long getInvalidationCount() {
+		return invalidationCount.get();
+	}
+	
+	public static int getCachedPlayerCount() {
+		return decisions.size();
+	}
+	
+	public static int getNodeCount() {
+		return nodes.size();
+	}
+	
+	// bukkit events
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPermissionEntityEvent(PermissionEntityEvent event) {
+		// a change to a group can change any of its members (or its children's)
+		if(event.getEntity() instanceof PermissionGroup) {
+			invalidateAll();
+		}
+		else {
+			invalidate(event.getEntity().getName());
+		}
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPermissionSystemEvent(PermissionSystemEvent event) {
+		// ie the permissions were reloaded
+		invalidateAll();
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+		// permissions can be different in each world
+		invalidate(event.getPlayer().getName());
+	}
+	
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerQuit(PlayerQuitEvent event) {
+		invalidate(event.getPlayer().getName());
+	}
 };
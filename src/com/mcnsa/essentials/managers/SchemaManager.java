@@ -0,0 +1,225 @@
+package com.mcnsa.essentials.managers;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+import com.mcnsa.essentials.annotations.DatabaseTableInfo;
+import com.mcnsa.essentials.exceptions.EssentialsDatabaseException;
+import com.mcnsa.essentials.utilities.Logger;
+import com.mcnsa.essentials.utilities.SQLDialect;
+
+// creates our tables and keeps them (and their indexes) up to date
+public class SchemaManager {
+	private static final String VERSIONS_TABLE = "schema_versions";
+	
+	private static LinkedHashMap<String, DatabaseTableInfo> tables = new LinkedHashMap<String, DatabaseTableInfo>();
+	
+	public static void addTable(DatabaseTableInfo tableInfo) {
+		tables.put(tableInfo.name(), tableInfo);
+	}
+	
+	// bring every registered table up to date
+	public static void ensureSchema() throws SQLException, EssentialsDatabaseException {
+		ensureSchema(DatabaseManager.getConnection());
+	}
+	
+	// the same, on a connection we've been given (and close)
+	public static void ensureSchema(Connection connection) throws SQLException {
+		try {
+			// we need somewhere to keep track of our versions
+			execute(connection, String.format(
+					"CREATE TABLE IF NOT EXISTS %s ( name VARCHAR(64) NOT NULL PRIMARY KEY, version INTEGER NOT NULL );",
+					VERSIONS_TABLE));
+			
+			for(DatabaseTableInfo tableInfo: tables.values()) {
+				try {
+					ensureTable(connection, tableInfo);
+				}
+				catch(SQLException e) {
+					Logger.error("Failed to ensure table construction of %s: (%s)! Skipping...", tableInfo.name(), e.getMessage());
+				}
+			}
+		}
+		finally {
+			connection.close();
+		}
+	}
+	
+	private static void ensureTable(Connection connection, DatabaseTableInfo tableInfo) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		boolean existed = tableExists(metaData, tableInfo.name());
+		
+		// create the table if we have to
+		SQLDialect dialect = DatabaseManager.getDialect();
+		String query = String.format("CREATE TABLE IF NOT EXISTS %s ( %s", tableInfo.name(), dialect.getPrimaryKeyColumn());
+		for(String field: tableInfo.fields()) {
+			query += ", " + dialect.translateField(field) + " NOT NULL";
+		}
+		query += " );";
+		execute(connection, query);
+		
+		// a brand new table is already at the latest version,
+		// an old one gets any migrations it hasn't had yet
+		String[] migrations = tableInfo.migrations();
+		int version = getVersion(connection, tableInfo.name());
+		if(!existed) {
+			if(version != migrations.length) {
+				setVersion(connection, tableInfo.name(), migrations.length);
+			}
+		}
+		else {
+			if(version < 0) {
+				version = 0;
+			}
+			for(; version < migrations.length; version++) {
+				Logger.log("&eMigrating table %s to version %d...", tableInfo.name(), version + 1);
+				int rows = execute(connection, migrations[version]);
+				setVersion(connection, tableInfo.name(), version + 1);
+				if(rows > 0) {
+					Logger.warning("Migrating table %s to version %d changed %d rows", tableInfo.name(), version + 1, rows);
+				}
+			}
+		}
+		
+		// and make sure all our indexes are there
+		HashSet<String> existingIndexes = getIndexNames(metaData, tableInfo.name());
+		for(String columns: tableInfo.indexes()) {
+			ensureIndex(connection, existingIndexes, tableInfo.name(), columns, false);
+		}
+		for(String columns: tableInfo.uniqueIndexes()) {
+			ensureIndex(connection, existingIndexes, tableInfo.name(), columns, true);
+		}
+	}
+	
+	private static void ensureIndex(Connection connection, HashSet<String> existingIndexes, String table, String columns, boolean unique) {
+		String indexName = getIndexName(table, columns, unique);
+		if(existingIndexes.contains(indexName)) {
+			return;
+		}
+		
+		try {
+			execute(connection, String.format("CREATE %sINDEX %s ON %s (%s);",
+					unique ? "UNIQUE " : "",
+					indexName,
+					table,
+					DatabaseManager.getDialect().translateIndexColumns(columns)));
+			existingIndexes.add(indexName);
+			Logger.log("&aAdded index %s to table %s", indexName, table);
+		}
+		catch(SQLException e) {
+			Logger.error("Failed to add index %s to table %s: (%s)! Skipping...", indexName, table, e.getMessage());
+		}
+	}
+	
+	// ie "recipient(16), unread" on mail becomes "mail_recipient_unread"
+	private static String getIndexName(String table, String columns, boolean unique) {
+		StringBuilder name = new StringBuilder(unique ? "uidx_" : "idx_").append(table);
+		for(String column: columns.split(",")) {
+			column = column.trim();
+			int prefix = column.indexOf('(');
+			if(prefix >= 0) {
+				column = column.substring(0, prefix).trim();
+			}
+			name.append('_').append(column);
+		}
+		return name.toString().toLowerCase();
+	}
+	
+	private static boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+		// some databases keep their names in upper case
+		String[] names = {table, table.toUpperCase()};
+		for(String name: names) {
+			ResultSet results = metaData.getTables(null, null, name, null);
+			try {
+				if(results.next()) {
+					return true;
+				}
+			}
+			finally {
+				results.close();
+			}
+		}
+		return false;
+	}
+	
+	private static HashSet<String> getIndexNames(DatabaseMetaData metaData, String table) throws SQLException {
+		HashSet<String> indexNames = new HashSet<String>();
+		String[] names = {table, table.toUpperCase()};
+		for(String name: names) {
+			ResultSet results = metaData.getIndexInfo(null, null, name, false, true);
+			try {
+				while(results.next()) {
+					String indexName = results.getString("INDEX_NAME");
+					if(indexName != null) {
+						indexNames.add(indexName.toLowerCase());
+					}
+				}
+			}
+			finally {
+				results.close();
+			}
+		}
+		return indexNames;
+	}
+	
+	// returns -1 if we've never seen the table before
+	private static int getVersion(Connection connection, String table) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepareStatement(
+				String.format("select version from %s where name=?;", VERSIONS_TABLE));
+		try {
+			preparedStatement.setString(1, table);
+			ResultSet results = preparedStatement.executeQuery();
+			if(results.next()) {
+				return results.getInt(1);
+			}
+			return -1;
+		}
+		finally {
+			preparedStatement.close();
+		}
+	}
+	
+	private static void setVersion(Connection connection, String table, int version) throws SQLException {
+		PreparedStatement preparedStatement = connection.prepareStatement(
+				String.format("update %s set version=? where name=?;", VERSIONS_TABLE));
+		try {
+			preparedStatement.setInt(1, version);
+			preparedStatement.setString(2, table);
+			if(preparedStatement.executeUpdate() > 0) {
+				return;
+			}
+		}
+		finally {
+			preparedStatement.close();
+		}
+		
+		preparedStatement = connection.prepareStatement(
+				String.format("insert into %s (name, version) values (?, ?);", VERSIONS_TABLE));
+		try {
+			preparedStatement.setString(1, table);
+			preparedStatement.setInt(2, version);
+			preparedStatement.executeUpdate();
+		}
+		finally {
+			preparedStatement.close();
+		}
+	}
+	
+	// (a plain statement, we don't want ddl hanging around in the statement cache)
+	// returns how many rows it changed
+	private static int execute(Connection connection, String query) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			return statement.executeUpdate(query);
+		}
+		finally {
+			statement.close();
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.managers.AuditLogManager;
+
+public class AuditLogFlushTask implements Runnable {
+	@Override
+	public void run() {
+		// keep writing batches until we've caught up (or something breaks)
+		while(AuditLogManager.getPendingCount() > 0) {
+			if(!AuditLogManager.flush()) {
+				break;
+			}
+		}
+	}
+}
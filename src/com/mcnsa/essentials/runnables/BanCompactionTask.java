@@ -0,0 +1,11 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.components.Ban;
+
+public class BanCompactionTask implements Runnable {
+	@Override
+	public void run() {
+		// move superseded ban logs into the archive
+		Ban.compactBanLogs();
+	}
+}
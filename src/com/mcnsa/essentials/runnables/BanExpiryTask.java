@@ -0,0 +1,14 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.components.Ban;
+
+public class BanExpiryTask implements Runnable {
+	@Override
+	public void run() {
+		// turn the wheel
+		Ban.expireBans();
+		
+		// and forget about old login attempts
+		Ban.pruneLoginThrottles();
+	}
+}
@@ -0,0 +1,14 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.components.Ban;
+import com.mcnsa.essentials.managers.DatabaseManager;
+
+public class BanIndexLoadTask implements Runnable {
+	@Override
+	public void run() {
+		// keep trying until the database lets us load our bans
+		if(!Ban.getBanIndex().isLoaded() && DatabaseManager.isAvailable()) {
+			Ban.loadBanIndex();
+		}
+	}
+}
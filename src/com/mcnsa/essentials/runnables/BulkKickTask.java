@@ -0,0 +1,27 @@
+package com.mcnsa.essentials.runnables;
+
+import org.bukkit.Bukkit;
+
+import com.mcnsa.essentials.MCNSAEssentials;
+import com.mcnsa.essentials.utilities.BulkOperation;
+
+public class BulkKickTask implements Runnable {
+	private BulkOperation operation = null;
+	private int kicksPerTick = 0;
+	
+	public BulkKickTask(BulkOperation operation, int kicksPerTick) {
+		this.operation = operation;
+		this.kicksPerTick = Math.max(1, kicksPerTick);
+	}
+	
+	@Override
+	public void run() {
+		// kick a few, and come back next tick for the rest
+		if(operation.kickNext(kicksPerTick)) {
+			operation.report();
+		}
+		else {
+			Bukkit.getServer().getScheduler().scheduleSyncDelayedTask(MCNSAEssentials.getInstance(), this, 1);
+		}
+	}
+}
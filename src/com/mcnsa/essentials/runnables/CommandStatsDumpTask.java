@@ -0,0 +1,11 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.managers.CommandsManager;
+
+public class CommandStatsDumpTask implements Runnable {
+	@Override
+	public void run() {
+		// write out how our commands are doing
+		CommandsManager.dumpStatistics();
+	}
+}
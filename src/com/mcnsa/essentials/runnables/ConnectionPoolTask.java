@@ -0,0 +1,26 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.utilities.ConnectionPool;
+import com.mcnsa.essentials.utilities.Logger;
+
+public class ConnectionPoolTask implements Runnable {
+	private ConnectionPool pool = null;
+	
+	public ConnectionPoolTask(ConnectionPool pool) {
+		this.pool = pool;
+	}
+	
+	@Override
+	public void run() {
+		// close connections that have been sitting around
+		pool.evictIdleConnections();
+		
+		// and make sure we still have our minimum
+		try {
+			pool.fill();
+		}
+		catch(Exception e) {
+			Logger.warning("Failed to refill database connection pool (%s)!", e.getMessage());
+		}
+	}
+}
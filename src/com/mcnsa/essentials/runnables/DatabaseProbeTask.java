@@ -0,0 +1,11 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.managers.DatabaseManager;
+
+public class DatabaseProbeTask implements Runnable {
+	@Override
+	public void run() {
+		// see if the database has come back
+		DatabaseManager.probe();
+	}
+}
@@ -1,16 +1,39 @@
 package com.mcnsa.essentials.runnables;
 
-import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
+import com.mcnsa.essentials.interfaces.RowMapper;
 import com.mcnsa.essentials.managers.DatabaseManager;
 import com.mcnsa.essentials.utilities.ColourHandler;
 
 public class MailTimerTask implements Runnable {	
+	private static class UnreadCount {
+		public String recipient;
+		public long numUnread;
+	}
+	
+	private static final RowMapper<UnreadCount> MAPPER = new RowMapper<UnreadCount>() {
+		private final String[] columns = {"recipient", "numUnread"};
+		
+		@Override
+		public String[] getColumns() {
+			return columns;
+		}
+		
+		@Override
+		public UnreadCount mapRow(ResultSet results, int[] columns) throws SQLException {
+			UnreadCount count = new UnreadCount();
+			count.recipient = results.getString(columns[0]);
+			count.numUnread = results.getLong(columns[1]);
+			return count;
+		}
+	};
+	
 	@Override
 	public void run() {
 		// get all our online players
@@ -22,7 +45,7 @@ public class MailTimerTask implements Runnable {
 		}
 		
 		// start to prepare a statement
-		String query = "select recipient, count(recipient) from mail where unread=? and recipient in(";
+		String query = "select recipient, count(recipient) as numUnread from mail where unread=? and recipient in(";
 		for(int i = 0; i < onlinePlayers.length; i++) {
 			if(i != 0) {
 				query += ",";
@@ -30,42 +53,30 @@ public class MailTimerTask implements Runnable {
 			query += "?";
 		}
 		query += ") group by recipient;";
-
-		PreparedStatement preparedStatement = null;
+		
+		// fill in the actual data
+		Object[] args = new Object[onlinePlayers.length + 1];
+		args[0] = true;
+		for(int i = 0; i < onlinePlayers.length; i++) {
+			args[i + 1] = onlinePlayers[i].getName();
+		}
+		
 		try {
-			// fill in the actual data
-			preparedStatement = DatabaseManager.getConnection().prepareStatement(query);
-			preparedStatement.setBoolean(1, true);
-			for(int i = 0; i < onlinePlayers.length; i++) {
-				preparedStatement.setString(i + 2, onlinePlayers[i].getName());
-			}
-			
 			// now execute the query and return the results
-			ArrayList<HashMap<String, Object>> results = DatabaseManager.accessQuery(preparedStatement);
-			for(HashMap<String, Object> result: results) {
+			ArrayList<UnreadCount> results = DatabaseManager.accessQuery(MAPPER, query, args);
+			for(UnreadCount result: results) {
 				// get our target player
-				Player player = Bukkit.getServer().getPlayer((String)result.get("recipient"));
+				Player player = Bukkit.getServer().getPlayer(result.recipient);
 				if(player == null) {
 					continue;
 				}
 				
-				// get our count
-				long numUnread = (Long)result.get("count(recipient)");
-				
 				// send them a message
-				ColourHandler.sendMessage(player, "&9You have &f%d &9unread messages! Check them with /mail", numUnread);
+				ColourHandler.sendMessage(player, "&9You have &f%d &9unread messages! Check them with /mail", result.numUnread);
 			}
 		}
 		catch (Exception e) {
 			//e.printStackTrace();
 		}
-		finally {
-			try {
-				preparedStatement.close();
-			}
-			catch (Exception e) {
-				//e.printStackTrace();
-			}
-		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.mcnsa.essentials.runnables;
+
+import com.mcnsa.essentials.utilities.ColourHandler;
+
+public class MessageDeliveryTask implements Runnable {
+	@Override
+	public void run() {
+		ColourHandler.deliverPendingMessages();
+	}
+}
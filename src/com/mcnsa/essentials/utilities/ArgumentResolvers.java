@@ -0,0 +1,155 @@
+package com.mcnsa.essentials.utilities;
+
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.interfaces.ArgumentBinder;
+
+// the types that @Command methods can take as parameters,
+// and how to turn what was typed into each of them
+// the results are shared between all the overloads tried for a single command,
+// so none of this is done more than once per argument
+public class ArgumentResolvers {
+	private static final Pattern PLAYER_NAME = Pattern.compile("[A-Za-z0-9_]{1,16}");
+	
+	private static HashMap<Class<?>, ArgumentBinder> binders = new HashMap<Class<?>, ArgumentBinder>();
+	// a short code for each type, used in registration strings
+	private static HashMap<Class<?>, String> codes = new HashMap<Class<?>, String>();
+	
+	static {
+		register(int.class, "i", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) {
+				try {
+					return Integer.parseInt(args[index]);
+				}
+				catch(NumberFormatException e) {
+					return null;
+				}
+			}
+		});
+		register(float.class, "f", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) {
+				try {
+					return Float.parseFloat(args[index]);
+				}
+				catch(NumberFormatException e) {
+					return null;
+				}
+			}
+		});
+		register(String.class, "s", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) {
+				return args[index];
+			}
+		});
+		// (everything that's left)
+		register(String[].class, "sa", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) {
+				String[] argsArray = new String[args.length - index];
+				System.arraycopy(args, index, argsArray, 0, argsArray.length);
+				return argsArray;
+			}
+		});
+		
+		// online players, using the player selector
+		register(Player[].class, "pa", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) throws EssentialsCommandException {
+				ArrayList<Player> targetPlayers = PlayerSelector.selectPlayersExact(args[index]);
+				if(targetPlayers.size() == 0) {
+					throw new EssentialsCommandException("I couldn't find / parse target player[s] '%s'!", args[index]);
+				}
+				return targetPlayers.toArray(new Player[targetPlayers.size()]);
+			}
+		});
+		// anyone who could have played, online or not
+		register(OfflinePlayer.class, "op", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) throws EssentialsCommandException {
+				if(!PLAYER_NAME.matcher(args[index]).matches()) {
+					throw new EssentialsCommandException("'%s' isn't a valid player name!", args[index]);
+				}
+				return PlayerSelector.selectSinglePlayer(args[index]);
+			}
+		});
+		// "forever", a length of time from now, or a date
+		register(Timestamp.class, "t", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) throws EssentialsCommandException {
+				return TimeFormat.parseTimestamp(args[index]);
+			}
+		});
+		register(InetAddress.class, "ip", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) throws EssentialsCommandException {
+				try {
+					return IPUtilities.parseIpAddress(args[index]);
+				}
+				catch(IllegalArgumentException e) {
+					throw new EssentialsCommandException(e.getMessage());
+				}
+			}
+		});
+		// an address or a whole subnet, ie "10.2.0.0/16"
+		register(IPSubnet.class, "sn", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) throws EssentialsCommandException {
+				try {
+					return IPSubnet.parse(args[index]);
+				}
+				catch(IllegalArgumentException e) {
+					throw new EssentialsCommandException(e.getMessage());
+				}
+			}
+		});
+		// using the item selector
+		register(ItemStack.class, "it", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) throws EssentialsCommandException {
+				return ItemSelector.selectItem(args[index]);
+			}
+		});
+		register(World.class, "w", new ArgumentBinder() {
+			@Override
+			public Object bind(String[] args, int index) throws EssentialsCommandException {
+				World world = Bukkit.getServer().getWorld(args[index]);
+				if(world == null) {
+					throw new EssentialsCommandException("I couldn't find the world '%s'!", args[index]);
+				}
+				return world;
+			}
+		});
+	}
+	
+	// add (or replace) how we handle a parameter type
+	public static void register(Class<?> type, String code, ArgumentBinder binder) {
+		binders.put(type, binder);
+		codes.put(type, code);
+	}
+	
+	public static boolean isSupported(Class<?> type) {
+		return binders.containsKey(type);
+	}
+	
+	public static ArgumentBinder getBinder(Class<?> type) {
+		return binders.get(type);
+	}
+	
+	public static String getCode(Class<?> type) {
+		return codes.get(type);
+	}
+}
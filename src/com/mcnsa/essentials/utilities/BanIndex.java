@@ -0,0 +1,274 @@
+package com.mcnsa.essentials.utilities;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mcnsa.essentials.components.Ban.BanEntry;
+
+// the latest ban log entry for everyone who has an active ban,
+// so logins can be checked without going to the database
+// names are kept in a map, addresses and subnets in a prefix trie
+// entries can be recorded in any order, the newest one for each banee wins
+// a bloom filter of everyone who has ever been in the ban logs lets us
+// skip the name lookup for the (many) people who have never been banned
+// active bans also sit in a timer wheel so they can be dropped as they expire
+public class BanIndex {
+	// the wheel turns once a second, and all the way round once an hour
+	private static final int WHEEL_SLOTS = 3600;
+	private static final long WHEEL_TICK_MILLIS = 1000;
+	
+	// out of all the subnets containing an address, the newest decision wins
+	// (so an unban of one address can punch a hole in a subnet ban)
+	private static final IPPrefixTrie.Chooser<BanEntry> NEWEST_DECISION = new IPPrefixTrie.Chooser<BanEntry>() {
+		@Override
+		public BanEntry choose(BanEntry best, BanEntry candidate) {
+			// bans that have run out on their own don't decide anything
+			if(isLapsed(candidate, System.currentTimeMillis())) {
+				return best;
+			}
+			return (best == null || isNewer(candidate, best)) ? candidate : best;
+		}
+	};
+	
+	// keyed on the lower case banee
+	private ConcurrentHashMap<String, BanEntry> latest = new ConcurrentHashMap<String, BanEntry>();
+	private IPPrefixTrie<BanEntry> subnets = new IPPrefixTrie<BanEntry>();
+	private BloomFilter everBanned = null;
+	private TimerWheel<BanEntry> expiries = new TimerWheel<BanEntry>(WHEEL_SLOTS, WHEEL_TICK_MILLIS, System.currentTimeMillis());
+	private volatile boolean loaded = false;
+	
+	// our statistics
+	private AtomicLong lookupCount = new AtomicLong(0);
+	private AtomicLong filteredCount = new AtomicLong(0);
+	
+	public BanIndex(BloomFilter everBanned) {
+		this.everBanned = everBanned;
+	}
+	
+	// someone who has been in the ban logs at some point
+	public void addBanee(String banee) {
+		everBanned.put(banee.toLowerCase());
+	}
+	
+	// keep the entry if it's the newest we've seen for its banee
+	public void record(BanEntry entry) {
+		String key = entry.banee.toLowerCase();
+		everBanned.put(key);
+		
+		// the records we write when a ban runs out don't decide anything,
+		// the ban has already been dropped
+		if(entry.isExpiryRecord()) {
+			return;
+		}
+		
+		if(!store(key, entry)) {
+			return;
+		}
+		
+		// keep track of when it runs out
+		if(entry.expiry.after(entry.date) && entry.expiry.getTime() > System.currentTimeMillis()) {
+			expiries.schedule(entry, entry.expiry.getTime());
+		}
+	}
+	
+	// returns false if we already had something newer
+	private boolean store(String key, BanEntry entry) {
+		IPSubnet subnet = toSubnet(entry.banee);
+		if(subnet != null) {
+			synchronized(subnets) {
+				BanEntry existing = subnets.get(subnet);
+				if(existing != null && !isNewer(entry, existing)) {
+					return false;
+				}
+				subnets.put(subnet, entry);
+				return true;
+			}
+		}
+		
+		while(true) {
+			BanEntry existing = latest.get(key);
+			if(existing == null) {
+				if(latest.putIfAbsent(key, entry) == null) {
+					return true;
+				}
+			}
+			else if(!isNewer(entry, existing)) {
+				return false;
+			}
+			else if(latest.replace(key, existing, entry)) {
+				return true;
+			}
+		}
+	}
+	
+	// whether this is still the latest entry for its banee
+	private boolean isCurrent(BanEntry entry) {
+		IPSubnet subnet = toSubnet(entry.banee);
+		if(subnet != null) {
+			return subnets.get(subnet) == entry;
+		}
+		return latest.get(entry.banee.toLowerCase()) == entry;
+	}
+	
+	// drops the bans that have run out since we last looked
+	// returns the ones that were dropped (not ones that had already been replaced)
+	public ArrayList<BanEntry> expire(long now) {
+		final ArrayList<BanEntry> expired = new ArrayList<BanEntry>();
+		expiries.advance(now, new TimerWheel.Expirer<BanEntry>() {
+			@Override
+			public void expire(BanEntry entry) {
+				IPSubnet subnet = toSubnet(entry.banee);
+				if(subnet != null) {
+					synchronized(subnets) {
+						if(subnets.get(subnet) == entry) {
+							subnets.remove(subnet);
+							expired.add(entry);
+						}
+					}
+				}
+				else if(latest.remove(entry.banee.toLowerCase(), entry)) {
+					expired.add(entry);
+				}
+			}
+		});
+		return expired;
+	}
+	
+	// the active bans that will run out by the given time, soonest first
+	public ArrayList<BanEntry> getExpiring(long until) {
+		ArrayList<BanEntry> expiring = new ArrayList<BanEntry>();
+		for(BanEntry entry: expiries.getDue(until)) {
+			if(isCurrent(entry)) {
+				expiring.add(entry);
+			}
+		}
+		return expiring;
+	}
+	
+	// the active ban with the latest expiry out of the player's name and address,
+	// or null if they aren't banned
+	public BanEntry getActiveBan(long now, String name, InetAddress address) {
+		lookupCount.incrementAndGet();
+		BanEntry active = null;
+		
+		String key = name.toLowerCase();
+		if(everBanned.mightContain(key)) {
+			BanEntry entry = latest.get(key);
+			if(entry != null && entry.expiry.getTime() > now) {
+				active = entry;
+			}
+		}
+		else {
+			filteredCount.incrementAndGet();
+		}
+		
+		if(address != null) {
+			long[] packed = new long[2];
+			IPUtilities.toLongs(address, packed);
+			BanEntry entry = subnets.find(packed[0], packed[1], NEWEST_DECISION);
+			if(entry != null && entry.expiry.getTime() > now && (active == null || entry.expiry.after(active.expiry))) {
+				active = entry;
+			}
+		}
+		
+		return active;
+	}
+	
+	// forget entries that don't ban anyone any more
+	// (only once we're loaded, or an older ban could sneak back in)
+	public int prune(final long now) {
+		int pruned = 0;
+		for(Iterator<BanEntry> it = latest.values().iterator(); it.hasNext();) {
+			if(it.next().expiry.getTime() <= now) {
+				it.remove();
+				pruned++;
+			}
+		}
+		
+		// (unbans of addresses stay, they might be punching a hole in a subnet)
+		pruned += subnets.prune(new IPPrefixTrie.Pruner<BanEntry>() {
+			@Override
+			public boolean shouldRemove(BanEntry entry) {
+				return isLapsed(entry, now);
+			}
+		});
+		return pruned;
+	}
+	
+	// whether we know about every ban (otherwise ask the database)
+	public boolean isLoaded() {
+		return loaded;
+	}
+	
+	public void setLoaded(boolean loaded) {
+		this.loaded = loaded;
+	}
+	
+	// statistics
+	public int size() {
+		return latest.size() + subnets.size();
+	}
+	
+	public int getSubnetCount() {
+		return subnets.size();
+	}
+	
+	// (including ones that have since been replaced, until they come due)
+	public int getScheduledCount() {
+		return expiries.size();
+	}
+	
+	public BloomFilter getFilter() {
+		return everBanned;
+	}
+	
+	public long getLookupCount() {
+		return lookupCount.get();
+	}
+	
+	// name lookups the bloom filter answered on its own
+	public long getFilteredCount() {
+		return filteredCount.get();
+	}
+	
+	// addresses and subnets are stored as "/1.2.3.4" or "/10.2.0.0/16",
+	// older ip bans as "1.2.3.4/1.2.3.4"
+	// returns null for player names (which never have dots, colons or slashes)
+	public static IPSubnet toSubnet(String banee) {
+		if(!banee.startsWith("/") && banee.indexOf('.') < 0 && banee.indexOf(':') < 0) {
+			return null;
+		}
+		
+		int slash = banee.lastIndexOf('/');
+		if(slash > 0 && (banee.indexOf('.', slash) >= 0 || banee.indexOf(':', slash) >= 0)) {
+			banee = banee.substring(slash);
+		}
+		
+		try {
+			return IPSubnet.parse(banee);
+		}
+		catch(IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	// a ban that ran out on its own (rather than an unban, which expires before it was made)
+	private static boolean isLapsed(BanEntry entry, long now) {
+		return entry.expiry.after(entry.date) && entry.expiry.getTime() <= now;
+	}
+	
+	// entries we just made haven't been written yet so don't have an id,
+	// but they're newer than anything that has
+	private static boolean isNewer(BanEntry entry, BanEntry existing) {
+		if(entry.date.after(existing.date)) {
+			return true;
+		}
+		else if(entry.date.before(existing.date)) {
+			return false;
+		}
+		return entry.id == 0 || (existing.id != 0 && entry.id > existing.id);
+	}
+}
@@ -0,0 +1,108 @@
+package com.mcnsa.essentials.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// a set of strings that can answer "definitely not in here" without storing them
+// it can give false positives (at roughly the rate it was sized for) but never false negatives
+// safe to add to and check from any thread
+public class BloomFilter {
+	private AtomicLongArray bits = null;
+	private long bitCount = 0;
+	private int hashCount = 0;
+	private AtomicLong insertions = new AtomicLong(0);
+	
+	public BloomFilter(int expectedInsertions, float falsePositiveRate) {
+		expectedInsertions = Math.max(1, expectedInsertions);
+		if(falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			falsePositiveRate = 0.01f;
+		}
+		
+		// the optimal sizes, see https://en.wikipedia.org/wiki/Bloom_filter
+		double ln2 = Math.log(2);
+		long optimalBits = (long)Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (ln2 * ln2));
+		// (our bit indexes are ints, so that's as big as we can usefully go)
+		int words = (int)Math.min(1 << 25, (optimalBits + 63) / 64);
+		bits = new AtomicLongArray(words);
+		bitCount = (long)words * 64;
+		hashCount = Math.max(1, (int)Math.round((double)bitCount / expectedInsertions * ln2));
+	}
+	
+	public void put(String value) {
+		long hash = hash(value);
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32);
+		for(int i = 1; i <= hashCount; i++) {
+			long bit = index(h1 + i * h2);
+			int word = (int)(bit >>> 6);
+			long mask = 1L << bit;
+			
+			long current = bits.get(word);
+			while((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+				current = bits.get(word);
+			}
+		}
+		insertions.incrementAndGet();
+	}
+	
+	// false means it was definitely never put in
+	public boolean mightContain(String value) {
+		long hash = hash(value);
+		int h1 = (int)hash;
+		int h2 = (int)(hash >>> 32);
+		for(int i = 1; i <= hashCount; i++) {
+			long bit = index(h1 + i * h2);
+			if((bits.get((int)(bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// statistics
+	public long getBitCount() {
+		return bitCount;
+	}
+	
+	public int getHashCount() {
+		return hashCount;
+	}
+	
+	public long getInsertions() {
+		return insertions.get();
+	}
+	
+	public long getMemoryBytes() {
+		return bitCount / 8;
+	}
+	
+	// the chance of a false positive given how full we are
+	// (insertions counts duplicates too, so this errs on the high side)
+	public double getExpectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-hashCount * (double)insertions.get() / bitCount), hashCount);
+	}
+	
+	// double hashing turns our one 64 bit hash into as many as we need
+	private long index(int combined) {
+		// flip negative hashes rather than taking the absolute value
+		if(combined < 0) {
+			combined = ~combined;
+		}
+		return combined % bitCount;
+	}
+	
+	// 64 bit fnv-1a, mixed so the top and bottom halves are independent enough
+	private static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
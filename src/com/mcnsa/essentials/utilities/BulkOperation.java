@@ -0,0 +1,121 @@
+package com.mcnsa.essentials.utilities;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import com.mcnsa.essentials.MCNSAEssentials;
+import com.mcnsa.essentials.managers.AuditLogManager;
+import com.mcnsa.essentials.runnables.BulkKickTask;
+
+// a moderation action against a whole bunch of players at once (ie banning a raid group)
+// every audit row goes out in one batch, then the kicks are spread out over a few ticks
+// a problem with one target doesn't stop the rest, it just gets reported at the end
+public class BulkOperation {
+	// a single player we're kicking
+	private static class Target {
+		public Player player = null;
+		public String notice = null;
+		public String kickMessage = null;
+		
+		public Target(Player player, String notice, String kickMessage) {
+			this.player = player;
+			this.notice = notice;
+			this.kickMessage = kickMessage;
+		}
+	}
+	
+	private CommandSender moderator = null;
+	private String summary = null;
+	private String query = null;
+	
+	private ArrayList<Target> targets = new ArrayList<Target>();
+	private ArrayList<Object[]> rows = new ArrayList<Object[]>();
+	private int nextKick = 0;
+	
+	// how things went
+	private ArrayList<String> succeeded = new ArrayList<String>();
+	private LinkedHashMap<String, String> failures = new LinkedHashMap<String, String>();
+	
+	// summary heads the list of everyone we dealt with, ie "&6You kicked the following people:"
+	// query is the audit log insert, which gets one row per target
+	public BulkOperation(CommandSender moderator, String summary, String query) {
+		this.moderator = moderator;
+		this.summary = summary;
+		this.query = query;
+	}
+	
+	// notice is sent to the target just before they're kicked with kickMessage
+	public void add(Player target, String notice, String kickMessage, Object... row) {
+		targets.add(new Target(target, notice, kickMessage));
+		rows.add(row);
+	}
+	
+	public void fail(String target, String reason) {
+		failures.put(target, reason);
+	}
+	
+	public int size() {
+		return targets.size();
+	}
+	
+	// write the audit log and start kicking
+	public void execute(int kicksPerTick) {
+		// queue every row at once, anything that didn't fit was dropped
+		int logged = rows.isEmpty() ? 0 : AuditLogManager.logAll(query, rows);
+		for(int i = logged; i < targets.size(); i++) {
+			fail(targets.get(i).player.getName(), "couldn't be written to the audit log");
+		}
+		
+		// kicking has to happen on the main thread
+		Bukkit.getServer().getScheduler().scheduleSyncDelayedTask(MCNSAEssentials.getInstance(),
+				new BulkKickTask(this, kicksPerTick));
+	}
+	
+	// kick up to count more players
+	// returns true once everyone has been dealt with
+	public boolean kickNext(int count) {
+		for(int kicked = 0; kicked < count && nextKick < targets.size(); kicked++, nextKick++) {
+			Target target = targets.get(nextKick);
+			String name = target.player.getName();
+			try {
+				// if they've already left there's nobody to kick
+				if(target.player.isOnline()) {
+					ColourHandler.sendMessage(target.player, target.notice);
+					target.player.kickPlayer(target.kickMessage);
+				}
+				if(!failures.containsKey(name)) {
+					succeeded.add(name);
+				}
+			}
+			catch(Exception e) {
+				fail(name, "couldn't be kicked: " + e.getMessage());
+			}
+		}
+		
+		return nextKick >= targets.size();
+	}
+	
+	// tell the moderator how it all went
+	public void report() {
+		if(succeeded.size() > 0) {
+			String playerListString = "";
+			for(String name: succeeded) {
+				if(!playerListString.equals("")) {
+					playerListString += "&6, ";
+				}
+				playerListString += "&e" + name;
+			}
+			ColourHandler.sendMessage(moderator, summary);
+			ColourHandler.sendMessage(moderator, playerListString);
+		}
+		
+		for(Map.Entry<String, String> failure: failures.entrySet()) {
+			ColourHandler.sendMessage(moderator, "&c%s %s", failure.getKey(), failure.getValue());
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.mcnsa.essentials.utilities;
+
+// stops us hammering something that's down
+// closed: everything goes through, counting consecutive failures
+// open: everything fails fast until a probe succeeds
+// half open: a probe is checking whether things are back
+public class CircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+	
+	private String name = null;
+	private int failureThreshold = 0;
+	
+	private State state = State.CLOSED;
+	private int consecutiveFailures = 0;
+	private long openedAt = 0;
+	
+	// our statistics
+	private long tripCount = 0;
+	private long rejectedCount = 0;
+	
+	public CircuitBreaker(String name, int failureThreshold) {
+		this.name = name;
+		this.failureThreshold = Math.max(1, failureThreshold);
+	}
+	
+	// whether a request should be let through
+	public synchronized boolean allowRequest() {
+		if(state == State.CLOSED) {
+			return true;
+		}
+		rejectedCount++;
+		return false;
+	}
+	
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		if(state != State.CLOSED) {
+			state = State.CLOSED;
+			Logger.log("&a%s is available again, resuming normal operation", name);
+		}
+	}
+	
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		if(state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			trip();
+		}
+	}
+	
+	// open the breaker right away
+	public synchronized void trip() {
+		// (a failed probe doesn't count as a new trip)
+		if(state == State.CLOSED) {
+			tripCount++;
+			Logger.warning("%s is unavailable, failing fast until it comes back", name);
+		}
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+	}
+	
+	// start checking whether things are back
+	// returns false if there's nothing to check
+	public synchronized boolean beginProbe() {
+		if(state != State.OPEN) {
+			return false;
+		}
+		state = State.HALF_OPEN;
+		return true;
+	}
+	
+	// statistics
+	public synchronized State getState() {
+		return state;
+	}
+	
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+	
+	public synchronized long getOpenedAt() {
+		return openedAt;
+	}
+	
+	public synchronized long getTripCount() {
+		return tripCount;
+	}
+	
+	public synchronized long getRejectedCount() {
+		return rejectedCount;
+	}
+}
@@ -1,15 +1,26 @@
 package com.mcnsa.essentials.utilities;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import com.mcnsa.essentials.MCNSAEssentials;
+import com.mcnsa.essentials.runnables.MessageDeliveryTask;
+
 public class ColourHandler {
 	static Integer nextColour = new Integer(0);	
+	
+	// messages sent from other threads, waiting to be delivered on the main thread
+	// (in one queue so they still arrive in the order they were sent)
+	private static ConcurrentLinkedQueue<Object[]> pendingMessages = new ConcurrentLinkedQueue<Object[]>();
+	private static AtomicBoolean deliveryScheduled = new AtomicBoolean(false);
 	// make it a static class) private constructor, static methods
 	private ColourHandler() {}
-
+	
 	public static String translateColour(String name) {
 		String colour = new String("???");
 		
@@ -39,7 +50,7 @@ public class ColourHandler {
 		
 		return colour;
 	}
-
+	
 	public static String translateName(String name) {
 		// default colour will be white.
 		String colour = new String("");
@@ -88,7 +99,7 @@ public class ColourHandler {
 		
 		return colour;
 	}
-
+	
 	// allow for colour tags to be used in strings..
 	public static String processColours(String format, Object... args) {
 		return processColours(String.format(format, args));
@@ -122,7 +133,7 @@ public class ColourHandler {
 		str = str.replaceAll("&r", ChatColor.RESET.toString());
 		return str;
 	}
-
+	
 	// strip colour tags from strings..
 	public static String stripColours(String str) {
 		return str.replaceAll("(&([a-f0-9klmnor]))", "").replaceAll("(\u00A7([a-f0-9klmnor]))", "");
@@ -136,6 +147,38 @@ public class ColourHandler {
 		if(message.length() < 1) {
 			return;
 		}
+		
+		// bukkit only wants to be talked to from the main thread
+		// (once we're disabled nothing would deliver them, so just send them)
+		if(!MCNSAEssentials.isMainThread() && MCNSAEssentials.getInstance().isEnabled()) {
+			pendingMessages.add(new Object[]{sender, message});
+			if(deliveryScheduled.compareAndSet(false, true)) {
+				try {
+					Bukkit.getServer().getScheduler().scheduleSyncDelayedTask(MCNSAEssentials.getInstance(), new MessageDeliveryTask());
+				}
+				catch(Exception e) {
+					// we got disabled in the meantime
+					deliveryScheduled.set(false);
+					deliverPendingMessages();
+				}
+			}
+			return;
+		}
+		
+		send(sender, message);
+	}
+	
+	// send everything that was queued up by other threads
+	public static void deliverPendingMessages() {
+		// anything queued after this point schedules another delivery
+		deliveryScheduled.set(false);
+		Object[] pending = null;
+		while((pending = pendingMessages.poll()) != null) {
+			send((CommandSender)pending[0], (String)pending[1]);
+		}
+	}
+	
+	private static void send(CommandSender sender, String message) {
 		String[] lines = message.split("\n");
 		for(String line: lines) {
 			if(sender instanceof Player) {
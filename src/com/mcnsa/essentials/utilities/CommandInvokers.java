@@ -0,0 +1,352 @@
+package com.mcnsa.essentials.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mcnsa.essentials.interfaces.CommandInvoker;
+
+// builds a CommandInvoker for each of our @Command methods
+// we can't use method handles (we still run on java 6), so instead we write out a tiny class
+// per method that casts and unboxes each argument and calls the method directly
+// (no access checks, no copying the arguments, no wrapping what it throws)
+// anything we can't call that way gets a reflective invoker instead
+public class CommandInvokers {
+	private static final String INVOKER_PACKAGE = "com/mcnsa/essentials/invokers/";
+	private static final String OBJECT = "java/lang/Object";
+	
+	// class file bits
+	private static final int MAGIC = 0xCAFEBABE;
+	// java 5 class files, so we don't have to write stack map frames
+	private static final int MAJOR_VERSION = 49;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+	
+	// constant pool tags
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	
+	// the opcodes we use
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int AALOAD = 0x32;
+	private static final int CHECKCAST = 0xc0;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	
+	private static AtomicInteger nextInvoker = new AtomicInteger(0);
+	
+	// defines our generated classes, so they can see the classes their method uses
+	private static class InvokerLoader extends ClassLoader {
+		public InvokerLoader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		public Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+	
+	// for methods we can't generate an invoker for
+	private static class ReflectiveInvoker implements CommandInvoker {
+		private Method method = null;
+		
+		public ReflectiveInvoker(Method method) {
+			this.method = method;
+			method.setAccessible(true);
+		}
+		
+		@Override
+		public boolean invoke(Object[] arguments) throws Exception {
+			try {
+				return (Boolean)method.invoke(null, arguments);
+			}
+			catch(InvocationTargetException e) {
+				// look like a direct call
+				if(e.getCause() instanceof Exception) {
+					throw (Exception)e.getCause();
+				}
+				if(e.getCause() instanceof Error) {
+					throw (Error)e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+	
+	public static CommandInvoker create(Method method) {
+		if(canGenerate(method)) {
+			try {
+				return generate(method);
+			}
+			catch(Throwable t) {
+				Logger.warning("Couldn't generate an invoker for %s.%s, calling it reflectively (%s)",
+						method.getDeclaringClass().getSimpleName(), method.getName(), t.toString());
+			}
+		}
+		return new ReflectiveInvoker(method);
+	}
+	
+	// our generated class lives in its own package, so it can only call public things
+	private static boolean canGenerate(Method method) {
+		if(!Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getModifiers())
+				|| method.getReturnType() != boolean.class || !isPublic(method.getDeclaringClass())) {
+			return false;
+		}
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		if(parameterTypes.length > 100) {
+			return false;
+		}
+		for(Class<?> type: parameterTypes) {
+			if(type.isPrimitive() ? (type != int.class && type != float.class) : !isPublic(type)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isPublic(Class<?> type) {
+		while(type.isArray()) {
+			type = type.getComponentType();
+		}
+		for(Class<?> c = type; c != null; c = c.getDeclaringClass()) {
+			if(!Modifier.isPublic(c.getModifiers())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static CommandInvoker generate(Method method) throws Exception {
+		String className = INVOKER_PACKAGE + method.getDeclaringClass().getSimpleName()
+				+ "_" + method.getName() + "_" + nextInvoker.incrementAndGet();
+		byte[] bytes = writeClass(className, method);
+		
+		InvokerLoader loader = new InvokerLoader(method.getDeclaringClass().getClassLoader());
+		Class<?> invokerClass = loader.define(className.replace('/', '.'), bytes);
+		return (CommandInvoker)invokerClass.newInstance();
+	}
+	
+	// a class along the lines of:
+	//   public final class Home_home_1 implements CommandInvoker {
+	//     public boolean invoke(Object[] a) {
+	//       return Home.home((CommandSender)a[0], (String)a[1], ((Integer)a[2]).intValue());
+	//     }
+	//   }
+	private static byte[] writeClass(String className, Method method) throws IOException {
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.addClass(className);
+		int superClass = pool.addClass(OBJECT);
+		int invokerInterface = pool.addClass(CommandInvoker.class.getName().replace('.', '/'));
+		int objectInit = pool.addMethodref(OBJECT, "<init>", "()V");
+		int target = pool.addMethodref(internalName(method.getDeclaringClass()), method.getName(), descriptor(method));
+		int initName = pool.addUtf8("<init>");
+		int initDescriptor = pool.addUtf8("()V");
+		int invokeName = pool.addUtf8("invoke");
+		int invokeDescriptor = pool.addUtf8("([Ljava/lang/Object;)Z");
+		int codeName = pool.addUtf8("Code");
+		
+		// the constructor just calls Object's
+		ByteArrayOutputStream initCode = new ByteArrayOutputStream();
+		initCode.write(ALOAD_0);
+		initCode.write(INVOKESPECIAL);
+		writeShort(initCode, objectInit);
+		initCode.write(RETURN);
+		
+		// unpack each argument, call the method and return what it did
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		ByteArrayOutputStream invokeCode = new ByteArrayOutputStream();
+		for(int i = 0; i < parameterTypes.length; i++) {
+			invokeCode.write(ALOAD_1);
+			if(i <= 5) {
+				invokeCode.write(ICONST_0 + i);
+			}
+			else {
+				invokeCode.write(BIPUSH);
+				invokeCode.write(i);
+			}
+			invokeCode.write(AALOAD);
+			
+			Class<?> type = parameterTypes[i];
+			if(type == int.class) {
+				invokeCode.write(CHECKCAST);
+				writeShort(invokeCode, pool.addClass("java/lang/Integer"));
+				invokeCode.write(INVOKEVIRTUAL);
+				writeShort(invokeCode, pool.addMethodref("java/lang/Integer", "intValue", "()I"));
+			}
+			else if(type == float.class) {
+				invokeCode.write(CHECKCAST);
+				writeShort(invokeCode, pool.addClass("java/lang/Float"));
+				invokeCode.write(INVOKEVIRTUAL);
+				writeShort(invokeCode, pool.addMethodref("java/lang/Float", "floatValue", "()F"));
+			}
+			else if(type != Object.class) {
+				invokeCode.write(CHECKCAST);
+				writeShort(invokeCode, pool.addClass(type.isArray() ? descriptor(type) : internalName(type)));
+			}
+		}
+		invokeCode.write(INVOKESTATIC);
+		writeShort(invokeCode, target);
+		invokeCode.write(IRETURN);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeShort(0);
+		out.writeShort(MAJOR_VERSION);
+		pool.write(out);
+		out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(invokerInterface);
+		// no fields
+		out.writeShort(0);
+		// two methods
+		out.writeShort(2);
+		writeMethod(out, initName, initDescriptor, codeName, 1, 1, initCode.toByteArray());
+		// (every argument takes a single slot, plus the array and index we're loading with)
+		writeMethod(out, invokeName, invokeDescriptor, codeName, parameterTypes.length + 2, 2, invokeCode.toByteArray());
+		// no attributes
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+		out.writeShort(ACC_PUBLIC);
+		out.writeShort(name);
+		out.writeShort(descriptor);
+		out.writeShort(1);
+		
+		// the Code attribute
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		// no exception table or attributes
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+	
+	private static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write((value >> 8) & 0xff);
+		out.write(value & 0xff);
+	}
+	
+	private static String internalName(Class<?> type) {
+		return type.getName().replace('.', '/');
+	}
+	
+	private static String descriptor(Method method) {
+		StringBuilder sb = new StringBuilder("(");
+		for(Class<?> type: method.getParameterTypes()) {
+			sb.append(descriptor(type));
+		}
+		return sb.append(")").append(descriptor(method.getReturnType())).toString();
+	}
+	
+	private static String descriptor(Class<?> type) {
+		if(type.isArray()) {
+			return "[" + descriptor(type.getComponentType());
+		}
+		if(type == int.class) {
+			return "I";
+		}
+		if(type == float.class) {
+			return "F";
+		}
+		if(type == boolean.class) {
+			return "Z";
+		}
+		return "L" + internalName(type) + ";";
+	}
+	
+	// the constants our class refers to, each only written once
+	private static class ConstantPool {
+		private ArrayList<byte[]> entries = new ArrayList<byte[]>();
+		private HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+		
+		public int addUtf8(String value) throws IOException {
+			Integer index = indexes.get("u" + value);
+			if(index != null) {
+				return index;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(CONSTANT_UTF8);
+			out.writeUTF(value);
+			return add("u" + value, bytes.toByteArray());
+		}
+		
+		public int addClass(String internalName) throws IOException {
+			Integer index = indexes.get("c" + internalName);
+			if(index != null) {
+				return index;
+			}
+			return add("c" + internalName, reference(CONSTANT_CLASS, addUtf8(internalName)));
+		}
+		
+		public int addMethodref(String owner, String name, String descriptor) throws IOException {
+			String key = "m" + owner + "." + name + descriptor;
+			Integer index = indexes.get(key);
+			if(index != null) {
+				return index;
+			}
+			int ownerIndex = addClass(owner);
+			int nameAndType = addNameAndType(name, descriptor);
+			return add(key, reference(CONSTANT_METHODREF, ownerIndex, nameAndType));
+		}
+		
+		private int addNameAndType(String name, String descriptor) throws IOException {
+			String key = "n" + name + ":" + descriptor;
+			Integer index = indexes.get(key);
+			if(index != null) {
+				return index;
+			}
+			int nameIndex = addUtf8(name);
+			int descriptorIndex = addUtf8(descriptor);
+			return add(key, reference(CONSTANT_NAME_AND_TYPE, nameIndex, descriptorIndex));
+		}
+		
+		private int add(String key, byte[] entry) {
+			entries.add(entry);
+			// constant pool indexes start at 1
+			int index = entries.size();
+			indexes.put(key, index);
+			return index;
+		}
+		
+		private byte[] reference(int tag, int... indexes) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			bytes.write(tag);
+			for(int index: indexes) {
+				writeShort(bytes, index);
+			}
+			return bytes.toByteArray();
+		}
+		
+		public void write(DataOutputStream out) throws IOException {
+			out.writeShort(entries.size() + 1);
+			for(byte[] entry: entries) {
+				out.write(entry);
+			}
+		}
+	}
+}
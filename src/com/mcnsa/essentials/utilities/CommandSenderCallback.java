@@ -0,0 +1,20 @@
+package com.mcnsa.essentials.utilities;
+
+import org.bukkit.command.CommandSender;
+
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.interfaces.QueryCallback;
+
+// a query callback that reports failures back to whoever issued the command
+public abstract class CommandSenderCallback<T> implements QueryCallback<T> {
+	protected CommandSender sender = null;
+	
+	public CommandSenderCallback(CommandSender sender) {
+		this.sender = sender;
+	}
+	
+	@Override
+	public void onFailure(EssentialsCommandException e) {
+		ColourHandler.sendMessage(sender, "&c" + e.getMessage());
+	}
+}
@@ -0,0 +1,148 @@
+package com.mcnsa.essentials.utilities;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// keeps track of how often each command method gets called and how long it takes
+// commands are grouped by their registration string, ie "home:p:s"
+public class CommandStatistics {
+	public static class CommandStats {
+		private String registration = null;
+		private boolean async = false;
+		private LatencyHistogram latency = new LatencyHistogram();
+		private AtomicLong failures = new AtomicLong(0);
+		private AtomicLong slowCount = new AtomicLong(0);
+		
+		public CommandStats(String registration, boolean async) {
+			this.registration = registration;
+			this.async = async;
+		}
+		
+		// failed means it threw something or returned false
+		public void record(long nanos, boolean failed, boolean slow) {
+			latency.record(nanos);
+			if(failed) {
+				failures.incrementAndGet();
+			}
+			if(slow) {
+				slowCount.incrementAndGet();
+			}
+		}
+		
+		public String getRegistration() {
+			return registration;
+		}
+		
+		public boolean isAsync() {
+			return async;
+		}
+		
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+		
+		public long getInvocations() {
+			return latency.getCount();
+		}
+		
+		public long getFailures() {
+			return failures.get();
+		}
+		
+		public long getSlowCount() {
+			return slowCount.get();
+		}
+		
+		public void reset() {
+			latency.reset();
+			failures.set(0);
+			slowCount.set(0);
+		}
+	}
+	
+	// every command we've registered, by registration string
+	private ConcurrentHashMap<String, CommandStats> commands = new ConcurrentHashMap<String, CommandStats>();
+	
+	// get the stats for a command when it's registered, so we don't have to look it up every call
+	public CommandStats register(String registration, boolean async) {
+		CommandStats stats = new CommandStats(registration, async);
+		CommandStats existing = commands.putIfAbsent(registration, stats);
+		return existing != null ? existing : stats;
+	}
+	
+	// the commands that have taken the most time overall
+	public ArrayList<CommandStats> getTopCommands(int count) {
+		ArrayList<CommandStats> sorted = new ArrayList<CommandStats>();
+		for(CommandStats stats: commands.values()) {
+			// don't bother with the ones nobody has used
+			if(stats.getInvocations() > 0) {
+				sorted.add(stats);
+			}
+		}
+		Collections.sort(sorted, new Comparator<CommandStats>() {
+			@Override
+			public int compare(CommandStats a, CommandStats b) {
+				long aTotal = a.latency.getTotalNanos();
+				long bTotal = b.latency.getTotalNanos();
+				return aTotal < bTotal ? 1 : (aTotal > bTotal ? -1 : 0);
+			}
+		});
+		
+		if(sorted.size() > count) {
+			return new ArrayList<CommandStats>(sorted.subList(0, count));
+		}
+		return sorted;
+	}
+	
+	public int getCommandCount() {
+		return commands.size();
+	}
+	
+	public void reset() {
+		for(CommandStats stats: commands.values()) {
+			stats.reset();
+		}
+	}
+	
+	// write every command that has been used out to a file, most expensive first
+	public void writeReport(File file) throws IOException {
+		ArrayList<CommandStats> sorted = getTopCommands(Integer.MAX_VALUE);
+		
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		try {
+			out.println("# command statistics as of " + new Date().toString());
+			out.println("# times are in milliseconds, slow calls are the ones that took longer than commands.stats.slow-millis");
+			out.println(String.format("%-40s %6s %10s %8s %6s %8s %8s %8s %8s %10s",
+					"command", "thread", "calls", "failed", "slow", "p50", "p95", "p99", "max", "total"));
+			for(CommandStats stats: sorted) {
+				LatencyHistogram latency = stats.getLatency();
+				out.println(String.format("%-40s %6s %10d %8d %6d %8.2f %8.2f %8.2f %8.2f %10d",
+						stats.getRegistration(),
+						stats.isAsync() ? "async" : "main",
+						latency.getCount(),
+						stats.getFailures(),
+						stats.getSlowCount(),
+						latency.getPercentileNanos(0.5) / 1000000f,
+						latency.getPercentileNanos(0.95) / 1000000f,
+						latency.getPercentileNanos(0.99) / 1000000f,
+						latency.getMaxNanos() / 1000000f,
+						latency.getTotalNanos() / 1000000));
+			}
+		}
+		finally {
+			out.close();
+		}
+		
+		if(out.checkError()) {
+			throw new IOException("Failed to write to " + file.getPath());
+		}
+	}
+}
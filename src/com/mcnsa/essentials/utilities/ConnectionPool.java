@@ -0,0 +1,398 @@
+package com.mcnsa.essentials.utilities;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Properties;
+
+// a small bounded pool of jdbc connections
+// connections handed out are proxies: closing them returns
+// the underlying connection to the pool instead of closing it
+public class ConnectionPool {
+	// how long a connection can sit idle before we re-validate it on borrow
+	private static final long VALIDATION_INTERVAL = 5000;
+	// how long (in seconds) we give the driver to validate a connection
+	private static final int VALIDATION_TIMEOUT = 2;
+	
+	// something the pool itself refused (it's closed, or we couldn't get a connection in time),
+	// as opposed to the driver failing to connect
+	public static class PoolException extends SQLException {
+		private static final long serialVersionUID = 4790417384311945720L;
+		
+		public PoolException(String message) {
+			super(message);
+		}
+	}
+	
+	// an actual database connection living in the pool
+	private class PooledConnection {
+		public Connection connection = null;
+		public StatementCache statementCache = null;
+		public long lastUsed = 0;
+		
+		public PooledConnection(Connection connection, int statementCacheSize) {
+			this.connection = connection;
+			if(statementCacheSize > 0) {
+				this.statementCache = new StatementCache(connection, statementCacheSize);
+			}
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+	
+	// what we hand out to callers
+	private class ConnectionHandle implements InvocationHandler {
+		private PooledConnection pooledConnection = null;
+		private boolean released = false;
+		
+		public ConnectionHandle(PooledConnection pooledConnection) {
+			this.pooledConnection = pooledConnection;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("close")) {
+				if(!released) {
+					released = true;
+					release(pooledConnection);
+				}
+				return null;
+			}
+			else if(name.equals("isClosed")) {
+				if(released) {
+					return true;
+				}
+			}
+			else if(name.equals("equals")) {
+				return proxy == args[0];
+			}
+			else if(name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			else if(released) {
+				throw new SQLException("Connection has already been returned to the pool!");
+			}
+			else if(name.equals("prepareStatement") && args.length == 1 && pooledConnection.statementCache != null) {
+				// re-use the statement if we've prepared it on this connection before
+				return pooledConnection.statementCache.prepareStatement((String)args[0]);
+			}
+			
+			try {
+				return method.invoke(pooledConnection.connection, args);
+			}
+			catch(InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+	
+	// our connection settings
+	private String url = null;
+	private String user = null;
+	private String password = null;
+	private Properties properties = null;
+	private int minSize = 0;
+	private int maxSize = 0;
+	private long maxIdleTime = 0;
+	private long acquireTimeout = 0;
+	private int statementCacheSize = 0;
+	
+	// our connections
+	private LinkedList<PooledConnection> idleConnections = new LinkedList<PooledConnection>();
+	private int totalConnections = 0;
+	private boolean closed = false;
+	
+	// our statistics
+	private long borrowCount = 0;
+	private long waitCount = 0;
+	private long timeoutCount = 0;
+	private long createdCount = 0;
+	private long evictedCount = 0;
+	private long invalidCount = 0;
+	
+	// properties are any extra driver settings
+	public ConnectionPool(String url, String user, String password, Properties properties, int minSize, int maxSize, long maxIdleTime, long acquireTimeout, int statementCacheSize) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.properties = properties;
+		this.maxSize = Math.max(1, maxSize);
+		this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+		this.maxIdleTime = maxIdleTime;
+		this.acquireTimeout = acquireTimeout;
+		this.statementCacheSize = statementCacheSize;
+	}
+	
+	// borrow a connection from the pool, waiting if we have to
+	// (close the returned connection to give it back)
+	public Connection getConnection() throws SQLException {
+		long deadline = System.currentTimeMillis() + acquireTimeout;
+		while(true) {
+			PooledConnection pooledConnection = null;
+			boolean create = false;
+			
+			synchronized(this) {
+				if(closed) {
+					throw new PoolException("Connection pool has been closed!");
+				}
+				
+				if(!idleConnections.isEmpty()) {
+					// reuse the most recently used connection
+					pooledConnection = idleConnections.removeFirst();
+				}
+				else if(totalConnections < maxSize) {
+					// reserve a slot and create a new one outside of the lock
+					totalConnections++;
+					create = true;
+				}
+				else {
+					// we're full, wait for someone to give one back
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						timeoutCount++;
+						throw new PoolException(String.format("Timed out waiting for a database connection (%d in use)!", totalConnections));
+					}
+					waitCount++;
+					try {
+						wait(remaining);
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new PoolException("Interrupted while waiting for a database connection!");
+					}
+					continue;
+				}
+			}
+			
+			if(create) {
+				try {
+					pooledConnection = createConnection();
+				}
+				catch(SQLException e) {
+					synchronized(this) {
+						totalConnections--;
+						notifyAll();
+					}
+					throw e;
+				}
+			}
+			else if(!validate(pooledConnection)) {
+				// it went stale on us, try again
+				destroy(pooledConnection);
+				synchronized(this) {
+					invalidCount++;
+				}
+				continue;
+			}
+			
+			synchronized(this) {
+				borrowCount++;
+			}
+			return (Connection)Proxy.newProxyInstance(
+					ConnectionPool.class.getClassLoader(),
+					new Class<?>[] {Connection.class},
+					new ConnectionHandle(pooledConnection));
+		}
+	}
+	
+	// make sure we have at least our minimum number of connections open
+	public void fill() throws SQLException {
+		while(true) {
+			synchronized(this) {
+				if(closed || totalConnections >= minSize) {
+					return;
+				}
+				totalConnections++;
+			}
+			
+			PooledConnection pooledConnection = null;
+			try {
+				pooledConnection = createConnection();
+			}
+			catch(SQLException e) {
+				synchronized(this) {
+					totalConnections--;
+				}
+				throw e;
+			}
+			
+			synchronized(this) {
+				idleConnections.addLast(pooledConnection);
+				notifyAll();
+			}
+		}
+	}
+	
+	// close any connections that have been idle for too long
+	// (but never dropping below our minimum size)
+	public void evictIdleConnections() {
+		LinkedList<PooledConnection> evicted = new LinkedList<PooledConnection>();
+		long now = System.currentTimeMillis();
+		
+		synchronized(this) {
+			// the oldest idle connections live at the end of the list
+			for(Iterator<PooledConnection> it = idleConnections.descendingIterator(); it.hasNext();) {
+				PooledConnection pooledConnection = it.next();
+				if(totalConnections - evicted.size() <= minSize) {
+					break;
+				}
+				if(now - pooledConnection.lastUsed > maxIdleTime) {
+					it.remove();
+					evicted.add(pooledConnection);
+				}
+			}
+			evictedCount += evicted.size();
+		}
+		
+		for(PooledConnection pooledConnection: evicted) {
+			destroy(pooledConnection);
+		}
+	}
+	
+	// shut the pool down, closing all idle connections
+	// connections currently in use are closed when they're given back
+	public void close() {
+		LinkedList<PooledConnection> toClose = null;
+		synchronized(this) {
+			closed = true;
+			toClose = new LinkedList<PooledConnection>(idleConnections);
+			idleConnections.clear();
+			notifyAll();
+		}
+		
+		for(PooledConnection pooledConnection: toClose) {
+			destroy(pooledConnection);
+		}
+	}
+	
+	private PooledConnection createConnection() throws SQLException {
+		Properties info = new Properties();
+		info.putAll(properties);
+		info.setProperty("user", user);
+		info.setProperty("password", password);
+		Connection connection = DriverManager.getConnection(url, info);
+		synchronized(this) {
+			createdCount++;
+		}
+		return new PooledConnection(connection, statementCacheSize);
+	}
+	
+	private boolean validate(PooledConnection pooledConnection) {
+		// don't bother validating connections that were just used
+		if(System.currentTimeMillis() - pooledConnection.lastUsed < VALIDATION_INTERVAL) {
+			return true;
+		}
+		
+		try {
+			return pooledConnection.connection.isValid(VALIDATION_TIMEOUT);
+		}
+		catch(SQLException e) {
+			return false;
+		}
+		catch(AbstractMethodError e) {
+			// older (jdbc 3) drivers can't tell us, just assume it's fine
+			return true;
+		}
+	}
+	
+	private void release(PooledConnection pooledConnection) {
+		// make sure we don't hand out a connection in the middle of a transaction
+		boolean healthy = true;
+		try {
+			if(pooledConnection.connection.isClosed()) {
+				healthy = false;
+			}
+			else if(!pooledConnection.connection.getAutoCommit()) {
+				pooledConnection.connection.rollback();
+				pooledConnection.connection.setAutoCommit(true);
+			}
+		}
+		catch(SQLException e) {
+			healthy = false;
+		}
+		
+		synchronized(this) {
+			if(healthy && !closed) {
+				pooledConnection.lastUsed = System.currentTimeMillis();
+				idleConnections.addFirst(pooledConnection);
+				notifyAll();
+				return;
+			}
+		}
+		
+		// nope, get rid of it
+		destroy(pooledConnection);
+	}
+	
+	private void destroy(PooledConnection pooledConnection) {
+		synchronized(this) {
+			totalConnections--;
+			notifyAll();
+		}
+		
+		if(pooledConnection.statementCache != null) {
+			pooledConnection.statementCache.close();
+		}
+		try {
+			pooledConnection.connection.close();
+		}
+		catch(SQLException e) {
+			Logger.warning("Failed to close pooled database connection (%s)!", e.getMessage());
+		}
+	}
+	
+	// statistics
+	public synchronized int getTotalConnections() {
+		return totalConnections;
+	}
+	
+	public synchronized int getIdleConnections() {
+		return idleConnections.size();
+	}
+	
+	public synchronized int getActiveConnections() {
+		return totalConnections - idleConnections.size();
+	}
+	
+	public int getMinSize() {
+		return minSize;
+	}
+	
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	public synchronized long getBorrowCount() {
+		return borrowCount;
+	}
+	
+	public synchronized long getWaitCount() {
+		return waitCount;
+	}
+	
+	public synchronized long getTimeoutCount() {
+		return timeoutCount;
+	}
+	
+	public synchronized long getCreatedCount() {
+		return createdCount;
+	}
+	
+	public synchronized long getEvictedCount() {
+		return evictedCount;
+	}
+	
+	public synchronized long getInvalidCount() {
+		return invalidCount;
+	}
+}
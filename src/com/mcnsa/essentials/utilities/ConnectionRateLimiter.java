@@ -0,0 +1,74 @@
+package com.mcnsa.essentials.utilities;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// counts connection attempts per address in fixed windows,
+// turning away anyone who tries too often within one
+public class ConnectionRateLimiter {
+	// the attempts from a single address
+	private static class Window {
+		public long start = 0;
+		public int attempts = 0;
+		
+		public Window(long start) {
+			this.start = start;
+		}
+	}
+	
+	private ConcurrentHashMap<InetAddress, Window> windows = new ConcurrentHashMap<InetAddress, Window>();
+	
+	// statistics
+	private AtomicLong rejectedCount = new AtomicLong(0);
+	
+	// whether another attempt from this address is ok right now
+	public boolean allow(InetAddress address, long now, int maxAttempts, long windowMillis) {
+		Window window = windows.get(address);
+		if(window == null) {
+			Window created = new Window(now);
+			window = windows.putIfAbsent(address, created);
+			if(window == null) {
+				window = created;
+			}
+		}
+		
+		synchronized(window) {
+			// start counting again
+			if(now - window.start >= windowMillis) {
+				window.start = now;
+				window.attempts = 0;
+			}
+			
+			window.attempts++;
+			if(window.attempts <= maxAttempts) {
+				return true;
+			}
+		}
+		
+		rejectedCount.incrementAndGet();
+		return false;
+	}
+	
+	// forget addresses that haven't tried anything lately
+	public void prune(long now, long windowMillis) {
+		Iterator<Window> it = windows.values().iterator();
+		while(it.hasNext()) {
+			Window window = it.next();
+			synchronized(window) {
+				if(now - window.start >= windowMillis) {
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	public int size() {
+		return windows.size();
+	}
+	
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+}
@@ -0,0 +1,135 @@
+package com.mcnsa.essentials.utilities;
+
+// a binary trie of subnets, one level per bit of the (128 bit) address
+// finding every subnet that contains an address takes at most 128 steps
+// (32 past the ipv4-mapped prefix for ipv4)
+// no matter how many subnets we hold
+// reads don't lock, so it's safe to look things up from any thread
+public class IPPrefixTrie<T> {
+	// picks between the values of subnets that contain an address,
+	// ie the most specific or the newest
+	public interface Chooser<T> {
+		// best is null until something has been chosen
+		public T choose(T best, T candidate);
+	}
+	
+	public interface Pruner<T> {
+		public boolean shouldRemove(T value);
+	}
+	
+	private static class Node<T> {
+		public volatile Node<T> zero = null;
+		public volatile Node<T> one = null;
+		public volatile T value = null;
+	}
+	
+	private Node<T> root = new Node<T>();
+	private int size = 0;
+	
+	// returns the value that was there before, if any
+	public synchronized T put(IPSubnet subnet, T value) {
+		Node<T> node = root;
+		long high = subnet.getHigh();
+		long low = subnet.getLow();
+		for(int bit = 0; bit < subnet.getPrefixLength(); bit++) {
+			if(isSet(high, low, bit)) {
+				if(node.one == null) {
+					node.one = new Node<T>();
+				}
+				node = node.one;
+			}
+			else {
+				if(node.zero == null) {
+					node.zero = new Node<T>();
+				}
+				node = node.zero;
+			}
+		}
+		
+		T previous = node.value;
+		node.value = value;
+		if(previous == null) {
+			size++;
+		}
+		return previous;
+	}
+	
+	// the value for exactly this subnet
+	public T get(IPSubnet subnet) {
+		Node<T> node = root;
+		long high = subnet.getHigh();
+		long low = subnet.getLow();
+		for(int bit = 0; bit < subnet.getPrefixLength() && node != null; bit++) {
+			node = isSet(high, low, bit) ? node.one : node.zero;
+		}
+		return node == null ? null : node.value;
+	}
+	
+	// (empty branches are left behind, they'll likely be used again)
+	public synchronized T remove(IPSubnet subnet) {
+		Node<T> node = root;
+		long high = subnet.getHigh();
+		long low = subnet.getLow();
+		for(int bit = 0; bit < subnet.getPrefixLength() && node != null; bit++) {
+			node = isSet(high, low, bit) ? node.one : node.zero;
+		}
+		if(node == null || node.value == null) {
+			return null;
+		}
+		
+		T previous = node.value;
+		node.value = null;
+		size--;
+		return previous;
+	}
+	
+	// walks from the widest subnet containing the address to the narrowest,
+	// letting the chooser pick between their values
+	public T find(long high, long low, Chooser<T> chooser) {
+		T best = null;
+		Node<T> node = root;
+		for(int bit = 0; node != null; bit++) {
+			T value = node.value;
+			if(value != null) {
+				best = chooser.choose(best, value);
+			}
+			if(bit == 128) {
+				break;
+			}
+			node = isSet(high, low, bit) ? node.one : node.zero;
+		}
+		return best;
+	}
+	
+	// removes every value the pruner doesn't want any more
+	// returns how many were removed
+	public synchronized int prune(Pruner<T> pruner) {
+		int removed = prune(root, pruner);
+		size -= removed;
+		return removed;
+	}
+	
+	private static <T> int prune(Node<T> node, Pruner<T> pruner) {
+		if(node == null) {
+			return 0;
+		}
+		int removed = 0;
+		if(node.value != null && pruner.shouldRemove(node.value)) {
+			node.value = null;
+			removed++;
+		}
+		return removed + prune(node.zero, pruner) + prune(node.one, pruner);
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	// bit 0 is the most significant
+	private static boolean isSet(long high, long low, int bit) {
+		if(bit < 64) {
+			return (high & (1L << (63 - bit))) != 0;
+		}
+		return (low & (1L << (127 - bit))) != 0;
+	}
+}
@@ -0,0 +1,135 @@
+package com.mcnsa.essentials.utilities;
+
+import java.net.InetAddress;
+
+// a range of ip addresses in cidr notation, ie 10.2.0.0/16 or 2001:db8::/32
+// addresses are kept as 128 bits, ipv4 ones ipv4-mapped (so 10.2.0.0/16 is ::ffff:10.2.0.0/112)
+// a single address is a /32 (or /128 for ipv6)
+public class IPSubnet {
+	private long high = 0;
+	private long low = 0;
+	private int prefixLength = 128;
+	
+	public IPSubnet(long high, long low, int prefixLength) {
+		if(prefixLength < 0 || prefixLength > 128) {
+			throw new IllegalArgumentException("A subnet's prefix length must be between 0 and 128!");
+		}
+		this.prefixLength = prefixLength;
+		// drop any host bits
+		this.high = high & getHighMask(prefixLength);
+		this.low = low & getLowMask(prefixLength);
+	}
+	
+	// parses "a.b.c.d", "a.b.c.d/n" or the ipv6 equivalents, with or
+	// without the leading slash InetAddress.toString() gives us
+	public static IPSubnet parse(String subnet) throws IllegalArgumentException {
+		int start = subnet.startsWith("/") ? 1 : 0;
+		int slash = subnet.indexOf('/', start);
+		int end = slash < 0 ? subnet.length() : slash;
+		
+		long[] address = new long[2];
+		if(!IPUtilities.parseAddress(subnet, start, end, address)) {
+			throw new IllegalArgumentException("'" + subnet.substring(start, end) + "' isn't a valid IP address, it must be in the format 'xxx.xxx.xxx.xxx' or an IPv6 address");
+		}
+		boolean ipv4 = IPUtilities.isIPv4Mapped(address[0], address[1]) && subnet.indexOf(':', start) < 0;
+		
+		int prefixLength = 128;
+		if(slash >= 0) {
+			prefixLength = 0;
+			int maxLength = ipv4 ? 32 : 128;
+			for(int i = slash + 1; i < subnet.length(); i++) {
+				char c = subnet.charAt(i);
+				if(c < '0' || c > '9' || prefixLength > maxLength) {
+					prefixLength = -1;
+					break;
+				}
+				prefixLength = prefixLength * 10 + (c - '0');
+			}
+			if(prefixLength < 0 || prefixLength > maxLength || slash + 1 == subnet.length()) {
+				throw new IllegalArgumentException("Illegal prefix length '" + subnet.substring(slash + 1) + "' in the subnet, it must be between 0 and " + maxLength + ".");
+			}
+			if(ipv4) {
+				prefixLength += 96;
+			}
+		}
+		
+		return new IPSubnet(address[0], address[1], prefixLength);
+	}
+	
+	public static long getHighMask(int prefixLength) {
+		if(prefixLength >= 64) {
+			return -1L;
+		}
+		return prefixLength == 0 ? 0 : -1L << (64 - prefixLength);
+	}
+	
+	public static long getLowMask(int prefixLength) {
+		if(prefixLength <= 64) {
+			return 0;
+		}
+		return prefixLength == 128 ? -1L : -1L << (128 - prefixLength);
+	}
+	
+	public long getHigh() {
+		return high;
+	}
+	
+	public long getLow() {
+		return low;
+	}
+	
+	// out of 128
+	public int getPrefixLength() {
+		return prefixLength;
+	}
+	
+	public boolean isIPv4() {
+		return prefixLength >= 96 && IPUtilities.isIPv4Mapped(high, low);
+	}
+	
+	public boolean isSingleAddress() {
+		return prefixLength == 128;
+	}
+	
+	public boolean contains(long high, long low) {
+		return (high & getHighMask(prefixLength)) == this.high && (low & getLowMask(prefixLength)) == this.low;
+	}
+	
+	public boolean contains(InetAddress address) {
+		long[] packed = new long[2];
+		IPUtilities.toLongs(address, packed);
+		return contains(packed[0], packed[1]);
+	}
+	
+	// the address part, ie "10.2.0.0"
+	public String getAddressString() {
+		if(isIPv4()) {
+			return IPUtilities.formatIPv4((int)low);
+		}
+		return IPUtilities.formatIPv6(high, low);
+	}
+	
+	// how we store it in the ban logs, matching InetAddress.toString()
+	// for single addresses, ie "/1.2.3.4" or "/10.2.0.0/16"
+	@Override
+	public String toString() {
+		if(isSingleAddress()) {
+			return "/" + getAddressString();
+		}
+		return "/" + getAddressString() + "/" + (isIPv4() ? prefixLength - 96 : prefixLength);
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		if(!(other instanceof IPSubnet)) {
+			return false;
+		}
+		IPSubnet subnet = (IPSubnet)other;
+		return high == subnet.high && low == subnet.low && prefixLength == subnet.prefixLength;
+	}
+	
+	@Override
+	public int hashCode() {
+		return (int)(high ^ (high >>> 32) ^ low ^ (low >>> 32)) * 31 + prefixLength;
+	}
+}
@@ -2,40 +2,229 @@ package com.mcnsa.essentials.utilities;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.StringTokenizer;
 
+// ip addresses are scanned a character at a time straight into primitives,
+// ipv4 into an int and ipv6 into two longs (most significant first),
+// without building any strings or tokenizers along the way
+// ipv4 addresses that need to live alongside ipv6 ones are ipv4-mapped, ie ::ffff:1.2.3.4
 public class IPUtilities {
-	// https://gist.github.com/ryantenney/3164334#file-parseipaddress-java
+	// the low 64 bits of ::ffff:0.0.0.0
+	public static final long IPV4_MAPPED_PREFIX = 0x0000ffff00000000L;
+	
 	public static InetAddress parseIpAddress(String ip) throws IllegalArgumentException {
-		StringTokenizer tok = new StringTokenizer(ip, ".");
-
-		if (tok.countTokens() != 4) {
-			throw new IllegalArgumentException("IP address must be in the format 'xxx.xxx.xxx.xxx'");
+		byte[] data = null;
+		
+		long ipv4 = parseIPv4(ip, 0, ip.length());
+		if(ipv4 >= 0) {
+			data = new byte[4];
+			putBytes(ipv4, data, 0, 4);
 		}
-
-		byte[] data = new byte[4];
-		int i = 0;
-		while (tok.hasMoreTokens()) {
-			String strVal = tok.nextToken();
-			try {
-				int val = Integer.parseInt(tok.nextToken(), 10);
-
-				if (val < 0 || val > 255) {
-					throw new IllegalArgumentException("Illegal value '" + val + "' at byte " + (i + 1) + " in the IP address.");
-				}
-
-				data[i++] = (byte) Integer.parseInt(tok.nextToken(), 10);
-			} catch (NumberFormatException e) {
-				throw new IllegalArgumentException("Illegal value '" + strVal + "' at token " + (i + 1) + " in the IP address.", e);
+		else {
+			long[] ipv6 = new long[2];
+			if(!parseIPv6(ip, 0, ip.length(), ipv6)) {
+				throw new IllegalArgumentException("'" + ip + "' isn't a valid IP address, it must be in the format 'xxx.xxx.xxx.xxx' or an IPv6 address");
 			}
+			data = new byte[16];
+			putBytes(ipv6[0], data, 0, 8);
+			putBytes(ipv6[1], data, 8, 8);
 		}
-
+		
 		try {
-			return InetAddress.getByAddress(ip, data);
+			return InetAddress.getByAddress(data);
 		} catch (UnknownHostException e) {
-			// This actually can't happen since the method InetAddress.getByAddress(String, byte[])
-			// doesn't perform any lookups and we have already guaranteed that the length of data is 4
+			// This actually can't happen since the method InetAddress.getByAddress(byte[])
+			// doesn't perform any lookups and we have already guaranteed that the length of data is 4 or 16
 			throw new Error("UnknownHostException somehow thrown when creating an InetAddress", e);
 		}
 	}
+	
+	// parses a dotted ipv4 address between start and end,
+	// returning it in the low 32 bits or -1 if it isn't valid
+	public static long parseIPv4(CharSequence text, int start, int end) {
+		long address = 0;
+		int octets = 0;
+		int value = 0;
+		int digits = 0;
+		for(int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if(c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				digits++;
+				if(digits > 3 || value > 255) {
+					return -1;
+				}
+			}
+			else if(c == '.') {
+				if(digits == 0 || octets == 3) {
+					return -1;
+				}
+				address = (address << 8) | value;
+				octets++;
+				value = 0;
+				digits = 0;
+			}
+			else {
+				return -1;
+			}
+		}
+		
+		if(digits == 0 || octets != 3) {
+			return -1;
+		}
+		return (address << 8) | value;
+	}
+	
+	// parses an ipv6 address between start and end into address[0] (the high 64 bits)
+	// and address[1] (the low 64 bits), returning false if it isn't valid
+	// handles "::" and a dotted ipv4 address on the end, but not zone ids
+	public static boolean parseIPv6(CharSequence text, int start, int end, long[] address) {
+		// the groups before and after the "::", if there is one
+		long headHigh = 0, headLow = 0;
+		long tailHigh = 0, tailLow = 0;
+		int headGroups = 0, tailGroups = 0;
+		boolean compressed = false;
+		
+		int i = start;
+		if(end - start >= 2 && text.charAt(i) == ':' && text.charAt(i + 1) == ':') {
+			compressed = true;
+			i += 2;
+		}
+		
+		while(i < end) {
+			// read a group of up to four hex digits
+			int groupStart = i;
+			int value = 0;
+			int digits = 0;
+			while(i < end) {
+				int digit = Character.digit(text.charAt(i), 16);
+				if(digit < 0) {
+					break;
+				}
+				value = (value << 4) | digit;
+				digits++;
+				i++;
+			}
+			
+			long group = value;
+			int groupCount = 1;
+			if(i < end && text.charAt(i) == '.') {
+				// an ipv4 address on the end, which counts as two groups
+				group = parseIPv4(text, groupStart, end);
+				if(group < 0) {
+					return false;
+				}
+				groupCount = 2;
+				i = end;
+			}
+			else if(digits == 0 || digits > 4) {
+				return false;
+			}
+			
+			if(headGroups + tailGroups + groupCount > 8) {
+				return false;
+			}
+			int shift = 16 * groupCount;
+			if(compressed) {
+				tailHigh = (tailHigh << shift) | (tailLow >>> (64 - shift));
+				tailLow = (tailLow << shift) | group;
+				tailGroups += groupCount;
+			}
+			else {
+				headHigh = (headHigh << shift) | (headLow >>> (64 - shift));
+				headLow = (headLow << shift) | group;
+				headGroups += groupCount;
+			}
+			
+			// and on to the next one
+			if(i == end) {
+				break;
+			}
+			if(text.charAt(i) != ':' || i + 1 == end) {
+				return false;
+			}
+			i++;
+			if(text.charAt(i) == ':') {
+				if(compressed) {
+					return false;
+				}
+				compressed = true;
+				i++;
+			}
+		}
+		
+		int groups = headGroups + tailGroups;
+		if(compressed ? groups > 7 : groups != 8) {
+			return false;
+		}
+		
+		// slide the head groups up to the top, the "::" fills in the zeros
+		for(int group = headGroups; group < 8; group++) {
+			headHigh = (headHigh << 16) | (headLow >>> 48);
+			headLow <<= 16;
+		}
+		address[0] = headHigh | tailHigh;
+		address[1] = headLow | tailLow;
+		return true;
+	}
+	
+	// parses either kind of address, ipv4 addresses come out ipv4-mapped
+	public static boolean parseAddress(CharSequence text, int start, int end, long[] address) {
+		long ipv4 = parseIPv4(text, start, end);
+		if(ipv4 >= 0) {
+			address[0] = 0;
+			address[1] = IPV4_MAPPED_PREFIX | ipv4;
+			return true;
+		}
+		return parseIPv6(text, start, end, address);
+	}
+	
+	// the same as parseAddress, but from an address we already have
+	public static void toLongs(InetAddress inetAddress, long[] address) {
+		byte[] bytes = inetAddress.getAddress();
+		if(bytes.length == 4) {
+			address[0] = 0;
+			address[1] = IPV4_MAPPED_PREFIX | getLong(bytes, 0, 4);
+		}
+		else {
+			address[0] = getLong(bytes, 0, 8);
+			address[1] = getLong(bytes, 8, 8);
+		}
+	}
+	
+	public static boolean isIPv4Mapped(long high, long low) {
+		return high == 0 && (low & 0xffffffff00000000L) == IPV4_MAPPED_PREFIX;
+	}
+	
+	// ie "10.2.0.0"
+	public static String formatIPv4(int address) {
+		return ((address >>> 24) & 0xff) + "." + ((address >>> 16) & 0xff) + "." + ((address >>> 8) & 0xff) + "." + (address & 0xff);
+	}
+	
+	// all eight groups, the same way InetAddress.toString() does, ie "2001:db8:0:0:0:0:0:1"
+	public static String formatIPv6(long high, long low) {
+		StringBuilder sb = new StringBuilder(39);
+		for(int group = 0; group < 8; group++) {
+			if(group != 0) {
+				sb.append(':');
+			}
+			long half = group < 4 ? high : low;
+			sb.append(Integer.toHexString((int)((half >>> (48 - 16 * (group % 4))) & 0xffff)));
+		}
+		return sb.toString();
+	}
+	
+	private static long getLong(byte[] bytes, int offset, int length) {
+		long value = 0;
+		for(int i = 0; i < length; i++) {
+			value = (value << 8) | (bytes[offset + i] & 0xff);
+		}
+		return value;
+	}
+	
+	private static void putBytes(long value, byte[] bytes, int offset, int length) {
+		for(int i = length - 1; i >= 0; i--) {
+			bytes[offset + i] = (byte)value;
+			value >>>= 8;
+		}
+	}
 }
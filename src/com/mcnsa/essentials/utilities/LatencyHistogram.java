@@ -0,0 +1,106 @@
+package com.mcnsa.essentials.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// a fixed size histogram of durations that's safe to record into from any thread
+// buckets grow exponentially from 1 microsecond, four per power of two,
+// so percentiles are accurate to within 25%
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// 2^40 microseconds is almost two weeks, plenty
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT + 1) * SUB_BUCKETS;
+	
+	private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private AtomicLong count = new AtomicLong(0);
+	private AtomicLong totalNanos = new AtomicLong(0);
+	private AtomicLong maxNanos = new AtomicLong(0);
+	
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		
+		buckets.incrementAndGet(getBucket(nanos / 1000));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		
+		// keep track of our worst
+		long max = maxNanos.get();
+		while(nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+	
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+	
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+	
+	public long getMeanNanos() {
+		long count = this.count.get();
+		return count == 0 ? 0 : totalNanos.get() / count;
+	}
+	
+	// ie getPercentileNanos(0.99) for the 99th percentile
+	// (never more than the worst we've seen)
+	public long getPercentileNanos(double fraction) {
+		long count = this.count.get();
+		if(count == 0) {
+			return 0;
+		}
+		
+		long target = (long)Math.ceil(fraction * count);
+		if(target < 1) {
+			target = 1;
+		}
+		
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if(seen >= target) {
+				return Math.min(getUpperBound(i) * 1000, maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+	
+	// the bucket is the exponent of the leading bit
+	// plus the next couple of bits after it
+	private static int getBucket(long micros) {
+		if(micros < 1) {
+			micros = 1;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if(exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int)(((micros << SUB_BUCKET_BITS) >>> exponent) & (SUB_BUCKETS - 1));
+		return exponent * SUB_BUCKETS + subBucket;
+	}
+	
+	// the (exclusive) upper bound of a bucket, in microseconds
+	private static long getUpperBound(int bucket) {
+		int exponent = bucket / SUB_BUCKETS;
+		int subBucket = bucket % SUB_BUCKETS;
+		return ((long)(SUB_BUCKETS + subBucket + 1) << exponent) >>> SUB_BUCKET_BITS;
+	}
+}
@@ -0,0 +1,38 @@
+package com.mcnsa.essentials.utilities;
+
+import java.util.ArrayList;
+
+// a single page of query results, along with how many rows there are in total
+public class Page<T> {
+	private int pageIndex = 0;
+	private int pageSize = 0;
+	private int totalRows = 0;
+	private ArrayList<T> rows = null;
+	
+	public Page(int pageIndex, int pageSize, int totalRows, ArrayList<T> rows) {
+		this.pageIndex = pageIndex;
+		this.pageSize = pageSize;
+		this.totalRows = totalRows;
+		this.rows = rows;
+	}
+	
+	public int getPageIndex() {
+		return pageIndex;
+	}
+	
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	public int getTotalRows() {
+		return totalRows;
+	}
+	
+	public int getTotalPages() {
+		return (totalRows + pageSize - 1) / pageSize;
+	}
+	
+	public ArrayList<T> getRows() {
+		return rows;
+	}
+}
@@ -49,6 +49,22 @@ public class PlayerSelector {
 				}
 			}
 		}
+		else if(target.startsWith("ip:")) {
+			// everyone online from an address or subnet
+			IPSubnet subnet = null;
+			try {
+				subnet = IPSubnet.parse(target.substring(3));
+			}
+			catch(IllegalArgumentException e) {
+				throw new EssentialsCommandException("Player-by-ip selection format: ip:<address>[/subnet bits] (%s)", e.getMessage());
+			}
+			
+			for(Player player: Bukkit.getServer().getOnlinePlayers()) {
+				if(player.getAddress() != null && subnet.contains(player.getAddress().getAddress())) {
+					matchedPlayers.add(player);
+				}
+			}
+		}
 		else {
 			String[] playerTargets = target.split(",");
 			// now add online players
@@ -0,0 +1,136 @@
+package com.mcnsa.essentials.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// keeps track of how long each kind of query takes
+// queries are grouped by their sql, with whitespace and
+// lists of parameters, ie "in(?, ?, ?)", collapsed
+public class QueryStatistics {
+	// don't let a runaway query builder eat all our memory
+	private static final int MAX_SHAPES = 500;
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+	
+	public static class QueryShape {
+		private String query = null;
+		private LatencyHistogram latency = new LatencyHistogram();
+		private AtomicLong rows = new AtomicLong(0);
+		private AtomicLong failures = new AtomicLong(0);
+		private AtomicLong mainThreadCount = new AtomicLong(0);
+		private AtomicLong slowCount = new AtomicLong(0);
+		
+		public QueryShape(String query) {
+			this.query = query;
+		}
+		
+		public String getQuery() {
+			return query;
+		}
+		
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+		
+		public long getRows() {
+			return rows.get();
+		}
+		
+		public long getFailures() {
+			return failures.get();
+		}
+		
+		public long getMainThreadCount() {
+			return mainThreadCount.get();
+		}
+		
+		public long getSlowCount() {
+			return slowCount.get();
+		}
+	}
+	
+	// what we've seen, by their raw sql and by their collapsed sql
+	private ConcurrentHashMap<String, QueryShape> rawShapes = new ConcurrentHashMap<String, QueryShape>();
+	private ConcurrentHashMap<String, QueryShape> shapes = new ConcurrentHashMap<String, QueryShape>();
+	
+	// rows < 0 means the query failed
+	public void record(String query, long nanos, long rows, boolean mainThread, boolean slow) {
+		QueryShape shape = getShape(query);
+		if(shape == null) {
+			return;
+		}
+		
+		shape.latency.record(nanos);
+		if(rows < 0) {
+			shape.failures.incrementAndGet();
+		}
+		else {
+			shape.rows.addAndGet(rows);
+		}
+		if(mainThread) {
+			shape.mainThreadCount.incrementAndGet();
+		}
+		if(slow) {
+			shape.slowCount.incrementAndGet();
+		}
+	}
+	
+	// the shapes that have taken the most time overall
+	public ArrayList<QueryShape> getTopShapes(int count) {
+		ArrayList<QueryShape> sorted = new ArrayList<QueryShape>(shapes.values());
+		Collections.sort(sorted, new Comparator<QueryShape>() {
+			@Override
+			public int compare(QueryShape a, QueryShape b) {
+				long aTotal = a.latency.getTotalNanos();
+				long bTotal = b.latency.getTotalNanos();
+				return aTotal < bTotal ? 1 : (aTotal > bTotal ? -1 : 0);
+			}
+		});
+		
+		if(sorted.size() > count) {
+			return new ArrayList<QueryShape>(sorted.subList(0, count));
+		}
+		return sorted;
+	}
+	
+	public int getShapeCount() {
+		return shapes.size();
+	}
+	
+	public void reset() {
+		rawShapes.clear();
+		shapes.clear();
+	}
+	
+	private QueryShape getShape(String query) {
+		// most queries are constant strings, so this is usually all we need
+		QueryShape shape = rawShapes.get(query);
+		if(shape != null) {
+			return shape;
+		}
+		
+		String normalized = normalize(query);
+		shape = shapes.get(normalized);
+		if(shape == null) {
+			if(shapes.size() >= MAX_SHAPES) {
+				return null;
+			}
+			QueryShape existing = shapes.putIfAbsent(normalized, new QueryShape(normalized));
+			shape = existing != null ? existing : shapes.get(normalized);
+		}
+		
+		if(rawShapes.size() < MAX_SHAPES) {
+			rawShapes.put(query, shape);
+		}
+		return shape;
+	}
+	
+	public static String normalize(String query) {
+		String normalized = WHITESPACE.matcher(query.trim()).replaceAll(" ");
+		return PARAMETER_LIST.matcher(normalized).replaceAll("(?...)");
+	}
+}
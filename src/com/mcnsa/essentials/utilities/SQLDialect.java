@@ -0,0 +1,189 @@
+package com.mcnsa.essentials.utilities;
+
+import java.util.Properties;
+
+// the bits of sql that differ between the databases we support
+// our tables are declared in mysql terms, other dialects translate them
+public abstract class SQLDialect {
+	// pick a dialect based on the jdbc url
+	public static SQLDialect forUrl(String url) {
+		if(url.startsWith("jdbc:h2:")) {
+			return new H2Dialect();
+		}
+		else if(url.startsWith("jdbc:sqlite:")) {
+			return new SQLiteDialect();
+		}
+		return new MySQLDialect();
+	}
+	
+	public abstract String getName();
+	public abstract String getDriverClass();
+	public abstract String getVersionQuery();
+	public abstract String getPrimaryKeyColumn();
+	
+	// translate a column definition such as "owner TINYTEXT"
+	public String translateField(String field) {
+		return field;
+	}
+	
+	// translate an index's column list such as "recipient(16), unread"
+	public String translateIndexColumns(String columns) {
+		return columns;
+	}
+	
+	// driver settings we rely on, for any the url doesn't set itself
+	public Properties getConnectionProperties(String url) {
+		return new Properties();
+	}
+	
+	// how many connections can usefully be open at once (0 for no limit)
+	public int getMaxConnections() {
+		return 0;
+	}
+	
+	// make a select lock the rows it reads until the end of the transaction
+	public String lockRows(String query) {
+		return stripSemicolon(query) + " for update;";
+	}
+	
+	// replace a trailing type (ignoring case) in a column definition
+	protected static String replaceType(String field, String type, String replacement) {
+		String trimmed = field.trim();
+		int split = trimmed.lastIndexOf(' ');
+		if(split < 0 || !trimmed.substring(split + 1).equalsIgnoreCase(type)) {
+			return field;
+		}
+		return trimmed.substring(0, split + 1) + replacement;
+	}
+	
+	// strip mysql's index prefix lengths, ie "recipient(16)" -> "recipient"
+	protected static String stripPrefixLengths(String columns) {
+		return columns.replaceAll("\\(\\s*\\d+\\s*\\)", "");
+	}
+	
+	protected static String stripSemicolon(String query) {
+		query = query.trim();
+		if(query.endsWith(";")) {
+			query = query.substring(0, query.length() - 1);
+		}
+		return query;
+	}
+	
+	public static class MySQLDialect extends SQLDialect {
+		@Override
+		public String getName() {
+			return "MySQL";
+		}
+		
+		@Override
+		public String getDriverClass() {
+			return "com.mysql.jdbc.Driver";
+		}
+		
+		@Override
+		public String getVersionQuery() {
+			return "select version();";
+		}
+		
+		@Override
+		public String getPrimaryKeyColumn() {
+			return "id INTEGER NOT NULL PRIMARY KEY AUTO_INCREMENT UNIQUE";
+		}
+		
+		@Override
+		public Properties getConnectionProperties(String url) {
+			// without these the driver prepares statements on the client (so there's
+			// nothing for our statement cache to keep) and reads every result set
+			// into memory (so our fetch size doesn't stream anything)
+			Properties properties = new Properties();
+			String[] required = {"useServerPrepStmts", "useCursorFetch"};
+			for(String property: required) {
+				if(!url.contains(property + "=")) {
+					properties.setProperty(property, "true");
+				}
+			}
+			return properties;
+		}
+	}
+	
+	public static class H2Dialect extends SQLDialect {
+		@Override
+		public String getName() {
+			return "H2";
+		}
+		
+		@Override
+		public String getDriverClass() {
+			return "org.h2.Driver";
+		}
+		
+		@Override
+		public String getVersionQuery() {
+			return "select h2version();";
+		}
+		
+		@Override
+		public String getPrimaryKeyColumn() {
+			return "id INTEGER NOT NULL PRIMARY KEY AUTO_INCREMENT";
+		}
+		
+		@Override
+		public String translateField(String field) {
+			// h2 treats the text types as clobs, which can't be indexed
+			field = replaceType(field, "TINYTEXT", "VARCHAR(255)");
+			field = replaceType(field, "TEXT", "CLOB");
+			return field;
+		}
+		
+		@Override
+		public String translateIndexColumns(String columns) {
+			return stripPrefixLengths(columns);
+		}
+	}
+	
+	public static class SQLiteDialect extends SQLDialect {
+		@Override
+		public String getName() {
+			return "SQLite";
+		}
+		
+		@Override
+		public String getDriverClass() {
+			return "org.sqlite.JDBC";
+		}
+		
+		@Override
+		public String getVersionQuery() {
+			return "select sqlite_version();";
+		}
+		
+		@Override
+		public String getPrimaryKeyColumn() {
+			return "id INTEGER PRIMARY KEY AUTOINCREMENT";
+		}
+		
+		@Override
+		public String lockRows(String query) {
+			// sqlite locks the whole database when we write, and we only
+			// ever have the one connection anyway
+			return query;
+		}
+		
+		@Override
+		public String translateField(String field) {
+			field = replaceType(field, "TINYTEXT", "VARCHAR(255)");
+			return field;
+		}
+		
+		@Override
+		public String translateIndexColumns(String columns) {
+			return stripPrefixLengths(columns);
+		}
+		
+		@Override
+		public int getMaxConnections() {
+			// sqlite only allows one writer at a time anyway
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package com.mcnsa.essentials.utilities;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// an lru cache of prepared statements for a single connection, keyed on the sql text
+// statements handed out are proxies: closing them puts them back in the cache
+public class StatementCache {
+	// keep track of how we're doing across all connections
+	private static AtomicLong hitCount = new AtomicLong(0);
+	private static AtomicLong missCount = new AtomicLong(0);
+	private static AtomicLong evictionCount = new AtomicLong(0);
+	
+	// a statement living in the cache
+	private class CachedStatement implements InvocationHandler {
+		public PreparedStatement statement = null;
+		public boolean inUse = false;
+		public boolean evicted = false;
+		
+		public CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if(name.equals("close")) {
+				release(this);
+				return null;
+			}
+			else if(name.equals("isClosed")) {
+				if(!inUse) {
+					return true;
+				}
+			}
+			else if(name.equals("equals")) {
+				return proxy == args[0];
+			}
+			else if(name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			else if(!inUse) {
+				throw new SQLException("Statement has already been closed!");
+			}
+			
+			try {
+				return method.invoke(statement, args);
+			}
+			catch(InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+	
+	private Connection connection = null;
+	private LinkedHashMap<String, CachedStatement> statements = null;
+	
+	public StatementCache(Connection connection, final int maxSize) {
+		this.connection = connection;
+		
+		// an access-ordered map gives us lru ordering for free
+		this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = -2319496150931049164L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+				if(size() <= maxSize) {
+					return false;
+				}
+				evict(eldest.getValue());
+				return true;
+			}
+		};
+	}
+	
+	public synchronized PreparedStatement prepareStatement(String query) throws SQLException {
+		CachedStatement cached = statements.get(query);
+		if(cached != null && !cached.inUse) {
+			// we already have it ready to go
+			hitCount.incrementAndGet();
+		}
+		else if(cached != null) {
+			// someone on this connection is still using it, give them a throwaway one
+			missCount.incrementAndGet();
+			return connection.prepareStatement(query);
+		}
+		else {
+			missCount.incrementAndGet();
+			cached = new CachedStatement(connection.prepareStatement(query));
+			statements.put(query, cached);
+		}
+		
+		cached.inUse = true;
+		return (PreparedStatement)Proxy.newProxyInstance(
+				StatementCache.class.getClassLoader(),
+				new Class<?>[] {PreparedStatement.class},
+				cached);
+	}
+	
+	// close everything (when our connection is being closed)
+	public synchronized void close() {
+		for(Iterator<CachedStatement> it = statements.values().iterator(); it.hasNext();) {
+			CachedStatement cached = it.next();
+			it.remove();
+			closeStatement(cached.statement);
+		}
+	}
+	
+	private synchronized void release(CachedStatement cached) {
+		if(!cached.inUse) {
+			return;
+		}
+		cached.inUse = false;
+		
+		// if it fell out of the cache while we were using it, get rid of it now
+		if(cached.evicted) {
+			closeStatement(cached.statement);
+			return;
+		}
+		
+		// otherwise get it ready for its next use
+		try {
+			ResultSet results = cached.statement.getResultSet();
+			if(results != null) {
+				results.close();
+			}
+			cached.statement.clearParameters();
+			cached.statement.clearBatch();
+			cached.statement.setFetchSize(0);
+		}
+		catch(SQLException e) {
+			statements.values().remove(cached);
+			closeStatement(cached.statement);
+		}
+	}
+	
+	private void evict(CachedStatement cached) {
+		evictionCount.incrementAndGet();
+		cached.evicted = true;
+		if(!cached.inUse) {
+			closeStatement(cached.statement);
+		}
+	}
+	
+	private static void closeStatement(PreparedStatement statement) {
+		try {
+			statement.close();
+		}
+		catch(SQLException e) {
+			Logger.warning("Failed to close cached prepared statement (%s)!", e.getMessage());
+		}
+	}
+	
+	// statistics
+	public static long getHitCount() {
+		return hitCount.get();
+	}
+	
+	public static long getMissCount() {
+		return missCount.get();
+	}
+	
+	public static long getEvictionCount() {
+		return evictionCount.get();
+	}
+}
@@ -1,10 +1,19 @@
 package com.mcnsa.essentials.utilities;
 
+import java.sql.Timestamp;
+
 import com.mcnsa.essentials.exceptions.EssentialsCommandException;
 
 public class TimeFormat {
 	public static long dawnOffsetHours = 8;
 	
+	// as far into the future as a mysql TIMESTAMP column goes
+	private static final Timestamp LATEST = Timestamp.valueOf("2038-01-19 03:14:07");
+	// what "forever" means (with a little room to spare before the end of the TIMESTAMP range)
+	public static final Timestamp FOREVER = Timestamp.valueOf("2038-01-01 00:00:00");
+	// what "forever" used to mean, before it went by
+	public static final Timestamp LEGACY_FOREVER = Timestamp.valueOf("2020-02-02 02:02:02");
+	
 	public static String formatMinecraftTime(long time) {
 		// adjust the time based on dawn offset
 		time += dawnOffsetHours * 1000;
@@ -72,4 +81,110 @@ public class TimeFormat {
 		// couldn't find it?
 		throw new EssentialsCommandException("Unknown time input format '%s'!", stringTime);
 	}
+	
+	// a real world length of time, ie "2d 3h 15m"
+	public static String formatDuration(long millis) {
+		long seconds = Math.max(0, millis / 1000);
+		long days = seconds / 86400;
+		long hours = (seconds % 86400) / 3600;
+		long minutes = (seconds % 3600) / 60;
+		
+		if(days > 0) {
+			return String.format("%dd %dh %dm", days, hours, minutes);
+		}
+		else if(hours > 0) {
+			return String.format("%dh %dm", hours, minutes);
+		}
+		else if(minutes > 0) {
+			return String.format("%dm %ds", minutes, seconds % 60);
+		}
+		return String.format("%ds", seconds);
+	}
+	
+	// a real world length of time, ie "3d12h", "90m" or "1w"
+	// returns -1 if it isn't one
+	public static long parseDuration(String stringDuration) {
+		long millis = 0;
+		long number = -1;
+		for(int i = 0; i < stringDuration.length(); i++) {
+			char c = stringDuration.charAt(i);
+			if(c >= '0' && c <= '9') {
+				number = (number < 0 ? 0 : number * 10) + (c - '0');
+				if(number > 1000000) {
+					return -1;
+				}
+				continue;
+			}
+			
+			// every number needs a unit
+			if(number < 0) {
+				return -1;
+			}
+			switch(Character.toLowerCase(c)) {
+			case 's':
+				millis += number * 1000L;
+				break;
+			case 'm':
+				millis += number * 60000L;
+				break;
+			case 'h':
+				millis += number * 3600000L;
+				break;
+			case 'd':
+				millis += number * 86400000L;
+				break;
+			case 'w':
+				millis += number * 604800000L;
+				break;
+			default:
+				return -1;
+			}
+			number = -1;
+		}
+		
+		// (and there can't be one left over)
+		if(number >= 0 || millis <= 0) {
+			return -1;
+		}
+		return millis;
+	}
+	
+	// a point in real world time, ie "forever", a duration from now such as "3d12h",
+	// a date such as "2013-05-01", or a date and time such as "2013-05-01_18:30"
+	// (there can't be any spaces in it, each word is a separate argument)
+	public static Timestamp parseTimestamp(String stringTime) throws EssentialsCommandException {
+		if(stringTime.equalsIgnoreCase("forever") || stringTime.equalsIgnoreCase("never")) {
+			return FOREVER;
+		}
+		
+		long duration = parseDuration(stringTime);
+		if(duration > 0) {
+			return checkRange(new Timestamp(System.currentTimeMillis() + duration), stringTime);
+		}
+		
+		String dateTime = stringTime.replace('_', ' ').replace('T', ' ');
+		if(dateTime.indexOf(' ') < 0) {
+			dateTime += " 00:00:00";
+		}
+		else if(dateTime.length() - dateTime.indexOf(' ') <= 6) {
+			// no seconds
+			dateTime += ":00";
+		}
+		Timestamp timestamp = null;
+		try {
+			timestamp = Timestamp.valueOf(dateTime);
+		}
+		catch(IllegalArgumentException e) {
+			throw new EssentialsCommandException("I couldn't understand the time '%s'! Use 'forever', a length of time such as '3d12h', or a date such as '2013-05-01' or '2013-05-01_18:30'!", stringTime);
+		}
+		return checkRange(timestamp, stringTime);
+	}
+	
+	// make sure the database can actually store it
+	private static Timestamp checkRange(Timestamp timestamp, String stringTime) throws EssentialsCommandException {
+		if(timestamp.after(LATEST)) {
+			throw new EssentialsCommandException("The time '%s' is too far in the future!", stringTime);
+		}
+		return timestamp;
+	}
 }
@@ -0,0 +1,126 @@
+package com.mcnsa.essentials.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+// a hashed timer wheel: things are dropped into a slot by their deadline,
+// so scheduling is O(1) and each tick only has to look at one slot
+// anything more than a whole turn of the wheel away waits in its slot
+// until its round comes around
+// deadlines are in milliseconds, and nothing fires before its deadline
+public class TimerWheel<T> {
+	// gets handed everything that's due (outside of our lock)
+	public interface Expirer<T> {
+		public void expire(T item);
+	}
+	
+	private static class Timeout<T> {
+		public T item = null;
+		public long deadline = 0;
+		public long rounds = 0;
+	}
+	
+	private ArrayList<ArrayList<Timeout<T>>> slots = null;
+	private long tickMillis = 0;
+	// the next tick we haven't looked at yet
+	private long currentTick = 0;
+	private int size = 0;
+	
+	public TimerWheel(int slotCount, long tickMillis, long now) {
+		this.tickMillis = Math.max(1, tickMillis);
+		this.currentTick = now / this.tickMillis;
+		
+		slotCount = Math.max(1, slotCount);
+		slots = new ArrayList<ArrayList<Timeout<T>>>(slotCount);
+		for(int i = 0; i < slotCount; i++) {
+			slots.add(null);
+		}
+	}
+	
+	public synchronized void schedule(T item, long deadline) {
+		// round up so we never fire early, anything overdue goes off next tick
+		long tick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick);
+		
+		Timeout<T> timeout = new Timeout<T>();
+		timeout.item = item;
+		timeout.deadline = deadline;
+		timeout.rounds = (tick - currentTick) / slots.size();
+		
+		int slot = (int)(tick % slots.size());
+		if(slots.get(slot) == null) {
+			slots.set(slot, new ArrayList<Timeout<T>>());
+		}
+		slots.get(slot).add(timeout);
+		size++;
+	}
+	
+	// turns the wheel up to now, expiring everything that's due
+	// returns how many things expired
+	public int advance(long now, Expirer<T> expirer) {
+		ArrayList<T> due = new ArrayList<T>();
+		synchronized(this) {
+			long targetTick = now / tickMillis;
+			for(; currentTick <= targetTick; currentTick++) {
+				ArrayList<Timeout<T>> slot = slots.get((int)(currentTick % slots.size()));
+				if(slot == null) {
+					continue;
+				}
+				
+				for(Iterator<Timeout<T>> it = slot.iterator(); it.hasNext();) {
+					Timeout<T> timeout = it.next();
+					if(timeout.rounds > 0) {
+						timeout.rounds--;
+						continue;
+					}
+					it.remove();
+					size--;
+					due.add(timeout.item);
+				}
+			}
+		}
+		
+		for(T item: due) {
+			expirer.expire(item);
+		}
+		return due.size();
+	}
+	
+	// everything due by the given time, soonest first
+	public synchronized ArrayList<T> getDue(long until) {
+		ArrayList<Timeout<T>> timeouts = new ArrayList<Timeout<T>>();
+		
+		// only look at the slots we'd reach by then (or all of them)
+		long lastTick = until / tickMillis;
+		long ticks = Math.min(lastTick - currentTick + 1, slots.size());
+		for(long tick = currentTick; tick < currentTick + ticks; tick++) {
+			ArrayList<Timeout<T>> slot = slots.get((int)(tick % slots.size()));
+			if(slot == null) {
+				continue;
+			}
+			for(Timeout<T> timeout: slot) {
+				if(timeout.deadline <= until) {
+					timeouts.add(timeout);
+				}
+			}
+		}
+		
+		Collections.sort(timeouts, new Comparator<Timeout<T>>() {
+			@Override
+			public int compare(Timeout<T> a, Timeout<T> b) {
+				return a.deadline < b.deadline ? -1 : (a.deadline > b.deadline ? 1 : 0);
+			}
+		});
+		
+		ArrayList<T> items = new ArrayList<T>(timeouts.size());
+		for(Timeout<T> timeout: timeouts) {
+			items.add(timeout.item);
+		}
+		return items;
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+}
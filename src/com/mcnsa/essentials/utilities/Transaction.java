@@ -0,0 +1,41 @@
+package com.mcnsa.essentials.utilities;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.mcnsa.essentials.exceptions.EssentialsCommandException;
+import com.mcnsa.essentials.interfaces.RowMapper;
+import com.mcnsa.essentials.managers.DatabaseManager;
+
+// the statements of a unit of work, all run on the same connection
+// see DatabaseManager.transaction()
+public class Transaction {
+	private Connection connection = null;
+	
+	public Transaction(Connection connection) {
+		this.connection = connection;
+	}
+	
+	public Connection getConnection() {
+		return connection;
+	}
+	
+	public ArrayList<HashMap<String, Object>> accessQuery(String query, Object... args) throws EssentialsCommandException {
+		return DatabaseManager.accessQuery(connection, query, args);
+	}
+	
+	public <T> ArrayList<T> accessQuery(RowMapper<T> mapper, String query, Object... args) throws EssentialsCommandException {
+		return DatabaseManager.accessQuery(connection, mapper, query, args);
+	}
+	
+	// like accessQuery, but the rows stay locked until the transaction is over
+	// so no one else can change them (or add to them) underneath us
+	public <T> ArrayList<T> accessQueryForUpdate(RowMapper<T> mapper, String query, Object... args) throws EssentialsCommandException {
+		return DatabaseManager.accessQuery(connection, mapper, DatabaseManager.getDialect().lockRows(query), args);
+	}
+	
+	public int updateQuery(String query, Object... args) throws EssentialsCommandException {
+		return DatabaseManager.updateQuery(connection, query, args);
+	}
+}